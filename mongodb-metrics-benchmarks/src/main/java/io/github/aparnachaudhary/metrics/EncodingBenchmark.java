@@ -0,0 +1,85 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mongodb.MongoClient;
+import io.github.aparnachaudhary.metrics.model.HistogramEntity;
+import io.github.aparnachaudhary.metrics.model.TimerEntity;
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the entities of {@link io.github.aparnachaudhary.metrics.model} with encoding the same values
+ * straight to BSON with {@link MetricDocumentEncoder}.
+ *
+ * @author aparna
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EncodingBenchmark {
+
+    private Timer timer;
+    private Histogram histogram;
+    private MetricDocumentEncoder encoder;
+    private MetricDocumentEncoder distributionEncoder;
+
+    @Setup
+    public void setUp() {
+        final MetricRegistry registry = new MetricRegistry();
+        final Random random = new Random(42);
+        timer = registry.timer("timer");
+        histogram = registry.histogram("histogram");
+        for (int sample = 0; sample < 1028; sample++) {
+            timer.update(random.nextInt(1000000), TimeUnit.NANOSECONDS);
+            histogram.update(random.nextInt(10000));
+        }
+        encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>singletonMap("host", "benchmark"), new MetricDocumentEncoder.Options());
+        distributionEncoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>singletonMap("host", "benchmark"),
+                new MetricDocumentEncoder.Options().distributions(true));
+    }
+
+    @Benchmark
+    public TimerEntity timerEntity() {
+        return new TimerEntity(timer);
+    }
+
+    @Benchmark
+    public HistogramEntity histogramEntity() {
+        return new HistogramEntity(histogram.getSnapshot());
+    }
+
+    @Benchmark
+    public RawBsonDocument encodeTimer() {
+        return encoder.encodeTimer("timer", 0L, timer, timer.getSnapshot());
+    }
+
+    @Benchmark
+    public RawBsonDocument encodeHistogram() {
+        return encoder.encodeHistogram("histogram", 0L, histogram.getCount(), histogram.getSnapshot());
+    }
+
+    @Benchmark
+    public RawBsonDocument encodeTimerWithDistribution() {
+        return distributionEncoder.encodeTimer("timer", 0L, timer, timer.getSnapshot());
+    }
+}
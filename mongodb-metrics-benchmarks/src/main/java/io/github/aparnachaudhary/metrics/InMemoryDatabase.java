@@ -0,0 +1,84 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.RawBsonDocument;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+/**
+ * A stand-in for {@link MongoDatabase} that accepts bulk writes without any network round trip, so benchmarks measure
+ * the reporter alone. Written documents are only counted; their size is summed so the encoding cannot be optimized
+ * away.
+ *
+ * @author aparna
+ */
+final class InMemoryDatabase implements InvocationHandler {
+
+    private long documents;
+    private long bytes;
+
+    private final MongoCollection<?> collection = (MongoCollection<?>) Proxy.newProxyInstance(
+            MongoCollection.class.getClassLoader(), new Class<?>[] { MongoCollection.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("bulkWrite".equals(method.getName())) {
+                        write((List<?>) args[0]);
+                        return null;
+                    }
+                    return unsupported(proxy, method, args);
+                }
+            });
+
+    /**
+     * @return a new in-memory database
+     */
+    static MongoDatabase create() {
+        return (MongoDatabase) Proxy.newProxyInstance(MongoDatabase.class.getClassLoader(),
+                new Class<?>[] { MongoDatabase.class }, new InMemoryDatabase());
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getCollection":
+            return collection;
+        case "getCodecRegistry":
+            return MongoClient.getDefaultCodecRegistry();
+        case "getName":
+            return "metricstore";
+        default:
+            return unsupported(proxy, method, args);
+        }
+    }
+
+    private synchronized void write(List<?> requests) {
+        for (Object request : requests) {
+            documents++;
+            if (request instanceof InsertOneModel) {
+                bytes += ((RawBsonDocument) ((InsertOneModel<?>) request).getDocument()).getByteBuffer().remaining();
+            } else if (!(request instanceof WriteModel)) {
+                throw new IllegalArgumentException("Not a write model: " + request);
+            }
+        }
+    }
+
+    private Object unsupported(Object proxy, Method method, Object[] args) {
+        if ("equals".equals(method.getName())) {
+            return proxy == args[0];
+        }
+        if ("toString".equals(method.getName())) {
+            return "InMemoryDatabase{documents=" + documents + ", bytes=" + bytes + '}';
+        }
+        if ("hashCode".equals(method.getName())) {
+            return System.identityHashCode(proxy);
+        }
+        throw new UnsupportedOperationException(method.getName());
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete report cycle of {@link MongoDBReporter} against an {@link InMemoryDatabase}, with the metrics
+ * spread evenly over the five metric types.
+ *
+ * @author aparna
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReportBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    private int metrics;
+
+    @Param({ "0", "1000" })
+    private int batchSize;
+
+    private MongoDBReporter reporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MetricRegistry registry = new MetricRegistry();
+        final Random random = new Random(42);
+        for (int i = 0; i < metrics / 5; i++) {
+            final long value = i;
+            registry.register(MetricRegistry.name("gauge", Integer.toString(i)), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return value;
+                }
+            });
+            registry.counter(MetricRegistry.name("counter", Integer.toString(i))).inc(i);
+            registry.meter(MetricRegistry.name("meter", Integer.toString(i))).mark(i);
+            final Histogram histogram = registry.histogram(MetricRegistry.name("histogram", Integer.toString(i)));
+            final Timer timer = registry.timer(MetricRegistry.name("timer", Integer.toString(i)));
+            for (int sample = 0; sample < 100; sample++) {
+                histogram.update(random.nextInt(10000));
+                timer.update(random.nextInt(1000000), TimeUnit.NANOSECONDS);
+            }
+        }
+        reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(InMemoryDatabase.create())
+                .prefixedWith("benchmark")
+                .withBatchSize(batchSize)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public void report() {
+        reporter.report();
+    }
+}
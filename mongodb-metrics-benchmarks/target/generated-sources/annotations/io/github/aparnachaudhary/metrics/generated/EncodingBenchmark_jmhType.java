@@ -0,0 +1,4 @@
+package io.github.aparnachaudhary.metrics.generated;
+public class EncodingBenchmark_jmhType extends EncodingBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package io.github.aparnachaudhary.metrics.generated;
+public class ReportBenchmark_jmhType extends ReportBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,193 @@
+package io.github.aparnachaudhary.metrics;
+
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples building documents from writing them. Documents are put on a bounded queue which is drained by one or more
+ * writer threads into unordered bulk writes. Documents dropped because the queue is full, or still queued at shutdown,
+ * are handed to the spool when one is configured.
+ *
+ * @author aparna
+ */
+class AsyncWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncWriter.class);
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final MetricCollections collections;
+    private final DocumentLayout layout;
+    private final BlockingQueue<PendingWrite> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final MetricSpool spool;
+    private final ReporterMetrics metrics;
+    private final WritePolicy writePolicy;
+    private final Thread[] writers;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    AsyncWriter(MetricCollections collections, DocumentLayout layout, int queueCapacity, int writerThreads,
+            OverflowPolicy overflowPolicy, int batchSize, MetricSpool spool, ReporterMetrics metrics,
+            WritePolicy writePolicy) {
+        if (writerThreads < 1) {
+            throw new IllegalArgumentException("writerThreads must be positive: " + writerThreads);
+        }
+        this.collections = collections;
+        this.layout = layout;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.spool = spool;
+        this.metrics = metrics;
+        this.writePolicy = writePolicy;
+        this.writers = new Thread[writerThreads];
+        for (int i = 0; i < writerThreads; i++) {
+            writers[i] = new Thread(new Writer(), "mongodb-reporter-writer-" + (i + 1));
+            writers[i].setDaemon(true);
+            writers[i].start();
+        }
+    }
+
+    /**
+     * Queues a document for the given collection, applying the overflow policy if the queue is full.
+     *
+     * @param collectionName target collection
+     * @param document       document to insert
+     */
+    void enqueue(String collectionName, RawBsonDocument document) {
+        final PendingWrite write = new PendingWrite(collectionName, document);
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(write);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(write);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(write)) {
+                    final PendingWrite oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(write)) {
+                    drop(write);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown overflow policy " + overflowPolicy);
+        }
+    }
+
+    private void drop(PendingWrite write) {
+        dropped.incrementAndGet();
+        if (spool != null) {
+            spool.append(write.collectionName, Collections.singletonList(write.document));
+        }
+    }
+
+    /**
+     * @return number of documents waiting to be written
+     */
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of documents discarded, or spooled, because the queue was full
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops accepting work and waits for the writer threads to drain the queue.
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of {@code timeout}
+     */
+    void close(long timeout, TimeUnit unit) {
+        running = false;
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            for (Thread writer : writers) {
+                writer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Thread writer : writers) {
+            writer.interrupt();
+        }
+        if (!queue.isEmpty()) {
+            if (spool != null) {
+                LOGGER.info("Spooling {} metric documents not written before shutdown", queue.size());
+                PendingWrite write;
+                while ((write = queue.poll()) != null) {
+                    spool.append(write.collectionName, Collections.singletonList(write.document));
+                }
+            } else {
+                LOGGER.warn("Discarding {} metric documents not written before shutdown", queue.size());
+                queue.clear();
+            }
+        }
+    }
+
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            final BatchWriter batchWriter = new BatchWriter(collections, layout, batchSize, spool, metrics,
+                    writePolicy);
+            final List<PendingWrite> drained = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    final PendingWrite first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    drained.add(first);
+                    queue.drainTo(drained, batchSize - 1);
+                    for (PendingWrite write : drained) {
+                        batchWriter.add(write.collectionName, write.document);
+                    }
+                    batchWriter.flush();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Unable to write {} metric documents", drained.size(), e);
+                } finally {
+                    drained.clear();
+                }
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final String collectionName;
+        private final RawBsonDocument document;
+
+        private PendingWrite(String collectionName, RawBsonDocument document) {
+            this.collectionName = collectionName;
+            this.document = document;
+        }
+    }
+}
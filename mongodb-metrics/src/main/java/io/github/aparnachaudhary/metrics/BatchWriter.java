@@ -0,0 +1,183 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the documents of a report cycle per collection and writes them with unordered bulk writes of at most
+ * {@code maxBatchSize} documents. A failing document is logged and does not prevent the rest of its batch from being
+ * written. Writes are executed according to the {@link WritePolicy}. If a batch cannot be written at all it is handed to
+ * the spool, when one is configured.
+ *
+ * @author aparna
+ */
+class BatchWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchWriter.class);
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    private final MetricCollections collections;
+    private final DocumentLayout layout;
+    private final int maxBatchSize;
+    private final MetricSpool spool;
+    private final ReporterMetrics metrics;
+    private final WritePolicy writePolicy;
+    private final Map<String, List<RawBsonDocument>> pending = new LinkedHashMap<>();
+
+    BatchWriter(MetricCollections collections, DocumentLayout layout, int maxBatchSize, MetricSpool spool,
+            ReporterMetrics metrics, WritePolicy writePolicy) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.collections = collections;
+        this.layout = layout;
+        this.maxBatchSize = maxBatchSize;
+        this.spool = spool;
+        this.metrics = metrics;
+        this.writePolicy = writePolicy;
+    }
+
+    /**
+     * Queues a document for the given collection, writing the collection's batch once it is full.
+     *
+     * @param collectionName target collection
+     * @param document       document to insert
+     * @return the number of documents that could not be written if the batch was written, 0 otherwise
+     */
+    int add(String collectionName, RawBsonDocument document) {
+        List<RawBsonDocument> documents = pending.get(collectionName);
+        if (documents == null) {
+            documents = new ArrayList<>(maxBatchSize);
+            pending.put(collectionName, documents);
+        }
+        documents.add(document);
+        if (documents.size() >= maxBatchSize) {
+            return write(collectionName, documents);
+        }
+        return 0;
+    }
+
+    /**
+     * Writes all queued documents.
+     *
+     * @return the number of documents that could not be written
+     */
+    int flush() {
+        int failures = 0;
+        for (Map.Entry<String, List<RawBsonDocument>> entry : pending.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                failures += write(entry.getKey(), entry.getValue());
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Writes the queued documents of one collection.
+     *
+     * @param collectionName collection to write
+     * @return the number of documents that could not be written
+     */
+    int flush(String collectionName) {
+        final List<RawBsonDocument> documents = pending.get(collectionName);
+        return documents == null || documents.isEmpty() ? 0 : write(collectionName, documents);
+    }
+
+    /**
+     * Writes the given documents as one unordered bulk write and clears the list.
+     *
+     * @param collectionName target collection
+     * @param documents      documents to insert
+     * @return the number of documents that could not be written
+     */
+    int write(final String collectionName, List<RawBsonDocument> documents) {
+        final long start = metrics != null ? System.nanoTime() : 0L;
+        final List<WriteModel<RawBsonDocument>> requests = new ArrayList<>(documents.size());
+        long size = 0;
+        for (RawBsonDocument document : documents) {
+            requests.add(layout.toWriteModel(collectionName, document));
+            if (metrics != null) {
+                size += document.getByteBuffer().remaining();
+            }
+        }
+        int failures = 0;
+        try {
+            writePolicy.execute(new WritePolicy.Write<BulkWriteResult>() {
+                @Override
+                public BulkWriteResult execute() {
+                    return collections.get(collectionName).bulkWrite(requests, UNORDERED);
+                }
+            });
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (isDuplicateKey(error)) {
+                    LOGGER.debug("Skipping {} {}, it was already written", collectionName,
+                            nameOf(documents.get(error.getIndex())));
+                    continue;
+                }
+                LOGGER.warn("Unable to report {} {}: {}", collectionName, nameOf(documents.get(error.getIndex())),
+                        error.getMessage());
+                failures++;
+            }
+            if (e.getWriteConcernError() != null) {
+                LOGGER.warn("Write concern error reporting {} batch: {}", collectionName, e.getWriteConcernError().getMessage());
+            }
+        } catch (MongoException e) {
+            if (spool != null) {
+                if (e instanceof WritePolicy.CircuitOpenException) {
+                    LOGGER.debug("Writes paused, spooling {} batch of {} metrics", collectionName, documents.size());
+                } else {
+                    LOGGER.warn("Unable to report {} batch of {} metrics, spooling it: {}", collectionName,
+                            documents.size(), e.getMessage());
+                }
+                spool.append(collectionName, documents);
+            } else {
+                LOGGER.warn("Unable to report {} batch of {} metrics", collectionName, documents.size(), e);
+            }
+            failures = documents.size();
+        } finally {
+            if (metrics != null) {
+                metrics.write(collectionName, documents.size(), failures, size, System.nanoTime() - start);
+            }
+            documents.clear();
+        }
+        return failures;
+    }
+
+    /**
+     * @param error write error of a bulk write
+     * @return whether the document was rejected because a document with the same {@code _id} exists, i.e. it was
+     * already written by an earlier attempt
+     */
+    static boolean isDuplicateKey(BulkWriteError error) {
+        return error.getCode() == DUPLICATE_KEY;
+    }
+
+    /**
+     * @param document metric document
+     * @return the metric name stored in the document, for logging
+     */
+    static String nameOf(RawBsonDocument document) {
+        BsonValue name = document.get("name");
+        if (name == null) {
+            name = document.get(MetricSchema.COMPACT.name);
+        }
+        return name != null && name.isString() ? name.asString().getValue() : String.valueOf(name);
+    }
+}
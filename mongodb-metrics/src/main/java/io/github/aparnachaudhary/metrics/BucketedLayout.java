@@ -0,0 +1,105 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import java.util.Map;
+
+/**
+ * Stores the samples of a metric in one document per time bucket. Each sample is pushed onto parallel arrays, so a
+ * bucket document of a counter looks like
+ * <pre>
+ * { _id: "app.requests@1448812800000", name: "app.requests", timestamp: ISODate("2015-11-29T16:00:00Z"), samples: 3,
+ *   timestamps: [ ISODate(...), ISODate(...), ISODate(...) ], count: [ 10, 12, 17 ] }
+ * </pre>
+ * Nested values such as the timer snapshot are pushed per field, e.g. {@code snapshot.p99}. Additional fields and tags
+ * are set when the bucket is created; every combination of tags has its own buckets. Samples with an {@code _id} are
+ * only pushed if the bucket does not contain their timestamp yet; a repeated write then fails with a duplicate key
+ * error instead of adding the sample twice. Documents of collections other than the raw metric collections, such as
+ * rollups, are inserted as they are.
+ *
+ * @author aparna
+ */
+class BucketedLayout implements DocumentLayout {
+
+    static final String SAMPLES = "samples";
+    static final String TIMESTAMPS = "timestamps";
+
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    private static final BsonInt32 ONE = new BsonInt32(1);
+
+    private final long bucketMillis;
+    private final MetricSchema schema;
+
+    /**
+     * @param bucketMillis length of a bucket
+     * @param schema       field names of the documents
+     */
+    BucketedLayout(long bucketMillis, MetricSchema schema) {
+        if (bucketMillis < 1) {
+            throw new IllegalArgumentException("bucketMillis must be positive: " + bucketMillis);
+        }
+        this.bucketMillis = bucketMillis;
+        this.schema = schema;
+    }
+
+    @Override
+    public WriteModel<RawBsonDocument> toWriteModel(String collectionName, RawBsonDocument document) {
+        if (!MetricCollections.METRIC_COLLECTIONS.contains(collectionName)) {
+            return new InsertOneModel<>(document);
+        }
+        final BsonValue name = document.get(schema.name);
+        final long timestamp = document.getDateTime(schema.timestamp).getValue();
+        final long bucket = timestamp - Math.floorMod(timestamp, bucketMillis);
+
+        final BsonDocument setOnInsert = new BsonDocument(schema.name, name)
+                .append(schema.timestamp, new BsonDateTime(bucket));
+        final BsonValue tags = document.get(schema.tags);
+        if (tags != null) {
+            setOnInsert.append(schema.tags, tags);
+        }
+        final BsonDocument push = new BsonDocument(schema.timestamps, new BsonDateTime(timestamp));
+        for (Map.Entry<String, BsonValue> field : document.entrySet()) {
+            final String key = field.getKey();
+            if ("_id".equals(key) || schema.name.equals(key) || schema.timestamp.equals(key)
+                    || schema.tags.equals(key)) {
+                continue;
+            }
+            if (!schema.isReserved(key)) {
+                setOnInsert.append(key, field.getValue());
+            } else if (field.getValue().isDocument()) {
+                for (Map.Entry<String, BsonValue> nested : field.getValue().asDocument().entrySet()) {
+                    push.append(key + '.' + nested.getKey(), nested.getValue());
+                }
+            } else {
+                push.append(key, field.getValue());
+            }
+        }
+
+        final StringBuilder id = new StringBuilder(
+                name.isString() ? name.asString().getValue() : String.valueOf(name.asInt32().getValue()));
+        if (tags != null) {
+            // every tag combination gets its own buckets
+            for (Map.Entry<String, BsonValue> tag : tags.asDocument().entrySet()) {
+                id.append('.').append(tag.getKey()).append('=').append(tag.getValue().asString().getValue());
+            }
+        }
+        final BsonDocument filter = new BsonDocument("_id",
+                new BsonString(MetricDocumentEncoder.idOf(id.toString(), bucket)));
+        if (document.containsKey("_id")) {
+            filter.append(schema.timestamps, new BsonDocument("$ne", new BsonDateTime(timestamp)));
+        }
+        final BsonDocument update = new BsonDocument("$setOnInsert", setOnInsert)
+                .append("$inc", new BsonDocument(schema.samples, ONE))
+                .append("$push", push);
+        return new UpdateOneModel<>(filter, update, UPSERT);
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of distinct metric names written per prefix, the part of the name before the first dot, so a bug
+ * putting e.g. user ids into metric names cannot flood the collections and their {@code name} index. The first
+ * {@code maxNamesPerPrefix} names of a prefix are admitted until their metric is removed from the registry; further
+ * names are dropped or collapsed into {@code <prefix>.overflow}, depending on the {@link CardinalityPolicy}. At most
+ * {@value #MAX_PREFIXES} prefixes are tracked; names of further prefixes share one limit.
+ * <p>
+ * Admitted names are kept in a set bounded by the limit, rejected names are not kept at all: a {@link HyperLogLog}
+ * per prefix estimates how many distinct names the prefix really has. Admitted names are looked up without locking.
+ *
+ * @author aparna
+ */
+class CardinalityLimiter extends MetricRegistryListener.Base {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CardinalityLimiter.class);
+
+    static final int MAX_PREFIXES = 1024;
+    static final String OVERFLOW = "overflow";
+
+    private static final int PRECISION = 10;
+    private static final String OTHER_PREFIXES = "";
+
+    private final int maxNamesPerPrefix;
+    private final CardinalityPolicy policy;
+    private final ConcurrentMap<String, Prefix> admitted = new ConcurrentHashMap<>();
+    private final Map<String, Prefix> prefixes = new HashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param maxNamesPerPrefix maximum number of distinct names written per prefix
+     * @param policy            what to do with metrics over the limit
+     */
+    CardinalityLimiter(int maxNamesPerPrefix, CardinalityPolicy policy) {
+        if (maxNamesPerPrefix < 1) {
+            throw new IllegalArgumentException("maxNamesPerPrefix must be positive: " + maxNamesPerPrefix);
+        }
+        this.maxNamesPerPrefix = maxNamesPerPrefix;
+        this.policy = policy;
+    }
+
+    /**
+     * @param name name of the metric in the registry
+     * @return the name to write the metric under, or {@code null} if it is dropped
+     */
+    String admit(String name) {
+        if (admitted.containsKey(name)) {
+            return name;
+        }
+        return decide(name);
+    }
+
+    private synchronized String decide(String name) {
+        if (admitted.containsKey(name)) {
+            return name;
+        }
+        final int dot = name.indexOf('.');
+        final String prefixName = dot > 0 ? name.substring(0, dot) : name;
+        final String key = prefixes.containsKey(prefixName) || prefixes.size() < MAX_PREFIXES
+                ? prefixName
+                : OTHER_PREFIXES;
+        Prefix prefix = prefixes.get(key);
+        if (prefix == null) {
+            prefix = new Prefix();
+            prefixes.put(key, prefix);
+        }
+        prefix.distinct.add(name);
+        if (prefix.names.size() < maxNamesPerPrefix) {
+            prefix.names.add(name);
+            admitted.put(name, prefix);
+            return name;
+        }
+        rejected.incrementAndGet();
+        if (!prefix.limited) {
+            prefix.limited = true;
+            LOGGER.warn("More than {} distinct metric names start with '{}', {} the others", maxNamesPerPrefix, key,
+                    policy == CardinalityPolicy.DROP ? "dropping" : "collapsing");
+        }
+        if (policy == CardinalityPolicy.DROP) {
+            return null;
+        }
+        return key.isEmpty() ? OVERFLOW : MetricRegistry.name(key, OVERFLOW);
+    }
+
+    /**
+     * @return the number of metric values dropped or collapsed, counted once per report cycle
+     */
+    long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the estimated number of distinct names seen, including rejected ones, of the prefixes that reached the
+     * limit, by prefix; names of prefixes beyond {@value #MAX_PREFIXES} are counted under the empty prefix
+     */
+    synchronized Map<String, Long> limitedPrefixes() {
+        final Map<String, Long> estimates = new TreeMap<>();
+        for (Map.Entry<String, Prefix> prefix : prefixes.entrySet()) {
+            if (prefix.getValue().limited) {
+                estimates.put(prefix.getKey(), prefix.getValue().distinct.estimate());
+            }
+        }
+        return estimates;
+    }
+
+    private synchronized void release(String name) {
+        final Prefix prefix = admitted.remove(name);
+        if (prefix != null) {
+            prefix.names.remove(name);
+        }
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        release(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        release(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        release(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        release(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        release(name);
+    }
+
+    private static final class Prefix {
+
+        private final Set<String> names = new HashSet<>();
+        private final HyperLogLog distinct = new HyperLogLog(PRECISION);
+        private boolean limited;
+    }
+}
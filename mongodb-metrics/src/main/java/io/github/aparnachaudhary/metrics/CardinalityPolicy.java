@@ -0,0 +1,20 @@
+package io.github.aparnachaudhary.metrics;
+
+/**
+ * What the reporter does with a metric whose name would exceed the limit of distinct names of its prefix.
+ *
+ * @author aparna
+ */
+public enum CardinalityPolicy {
+
+    /**
+     * Do not write the metric.
+     */
+    DROP,
+
+    /**
+     * Write the metric under the name {@code <prefix>.overflow}, shared by all metrics over the limit of the prefix.
+     * Cannot be combined with idempotent writes, as all collapsed metrics of a cycle would get the same {@code _id}.
+     */
+    OVERFLOW
+}
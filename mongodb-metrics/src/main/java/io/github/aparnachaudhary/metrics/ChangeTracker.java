@@ -0,0 +1,153 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistryListener;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the last value written for each metric so unchanged values can be skipped. Every metric gets an id from
+ * {@link MetricIds}; the last values are kept in primitive arrays indexed by that id. A write is forced once a metric
+ * has been skipped for {@code heartbeat - 1} consecutive intervals. Ids of metrics removed from the registry are
+ * reused.
+ * <p>
+ * A value only becomes the one compared with once it was written, so a value whose write failed is written again in
+ * the next cycle. With batched or asynchronous writes a value counts as written once it is queued.
+ *
+ * @author aparna
+ */
+class ChangeTracker extends MetricRegistryListener.Base {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int heartbeat;
+    private final MetricIds ids = new MetricIds();
+    private long[] lastValues = new long[INITIAL_CAPACITY];
+    private Object[] lastObjects = new Object[INITIAL_CAPACITY];
+    private int[] intervalsSinceWrite = new int[INITIAL_CAPACITY];
+    private boolean[] written = new boolean[INITIAL_CAPACITY];
+
+    ChangeTracker(int heartbeat) {
+        if (heartbeat < 1) {
+            throw new IllegalArgumentException("heartbeat must be positive: " + heartbeat);
+        }
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     * Compares the current value of a metric with the value last written, counting an unchanged value towards the
+     * heartbeat.
+     *
+     * @param name  name of the metric in the registry
+     * @param value current value
+     * @return whether the value has to be written
+     */
+    synchronized boolean changed(String name, long value) {
+        final int id = idOf(name);
+        return !written[id] || lastValues[id] != value || lastObjects[id] != null
+                || ++intervalsSinceWrite[id] >= heartbeat;
+    }
+
+    /**
+     * Compares the current value of a gauge with the value last written. Integral numbers are compared by value,
+     * doubles and floats by their bits, other objects, including fractional numbers such as {@code BigDecimal}, with
+     * {@code equals}.
+     *
+     * @param name  name of the gauge in the registry
+     * @param value current value
+     * @return whether the value has to be written
+     */
+    synchronized boolean changed(String name, Object value) {
+        if (isIntegral(value) || value instanceof Double || value instanceof Float) {
+            return changed(name, bits((Number) value));
+        }
+        final int id = idOf(name);
+        return !written[id] || !value.equals(lastObjects[id]) || ++intervalsSinceWrite[id] >= heartbeat;
+    }
+
+    /**
+     * Records a value as written, so later cycles compare with it.
+     *
+     * @param name  name of the metric in the registry
+     * @param value value written
+     */
+    synchronized void written(String name, long value) {
+        final int id = idOf(name);
+        lastValues[id] = value;
+        lastObjects[id] = null;
+        markWritten(id);
+    }
+
+    /**
+     * Records a gauge value as written, so later cycles compare with it.
+     *
+     * @param name  name of the gauge in the registry
+     * @param value value written
+     */
+    synchronized void written(String name, Object value) {
+        if (isIntegral(value) || value instanceof Double || value instanceof Float) {
+            written(name, bits((Number) value));
+            return;
+        }
+        final int id = idOf(name);
+        lastObjects[id] = value;
+        markWritten(id);
+    }
+
+    synchronized int size() {
+        return ids.size();
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicLong || value instanceof AtomicInteger;
+    }
+
+    private static long bits(Number value) {
+        if (value instanceof Double || value instanceof Float) {
+            return Double.doubleToLongBits(value.doubleValue());
+        }
+        return value.longValue();
+    }
+
+    private void markWritten(int id) {
+        written[id] = true;
+        intervalsSinceWrite[id] = 0;
+    }
+
+    private int idOf(String name) {
+        final int id = ids.idOf(name);
+        if (id == written.length) {
+            final int capacity = written.length * 2;
+            lastValues = Arrays.copyOf(lastValues, capacity);
+            lastObjects = Arrays.copyOf(lastObjects, capacity);
+            intervalsSinceWrite = Arrays.copyOf(intervalsSinceWrite, capacity);
+            written = Arrays.copyOf(written, capacity);
+        }
+        return id;
+    }
+
+    private synchronized void release(String name) {
+        final int id = ids.release(name);
+        if (id >= 0) {
+            written[id] = false;
+            lastObjects[id] = null;
+        }
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        release(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        release(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        release(name);
+    }
+}
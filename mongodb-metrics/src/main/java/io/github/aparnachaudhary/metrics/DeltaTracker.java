@@ -0,0 +1,122 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistryListener;
+
+import java.util.Arrays;
+
+/**
+ * Turns the cumulative counts of counters and meters into the change since the previous report cycle. Every metric
+ * gets an id from {@link MetricIds}; the previous counts and the times they were read are kept in primitive arrays
+ * indexed by that id. The rate is the delta divided by the exact time between the two readings, taken from
+ * the reporter's {@link com.codahale.metrics.Clock}.
+ * <p>
+ * The first reading of a metric, e.g. after the application restarted or the metric was registered again, yields the
+ * whole count as delta, so summing the deltas of all cycles gives the total across restarts. The count of a meter
+ * only grows; if it is lower than before, the meter was reset and the delta is the new count. Counters can be
+ * decremented, so a lower count yields a negative delta.
+ *
+ * @author aparna
+ */
+class DeltaTracker extends MetricRegistryListener.Base {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final MetricIds ids = new MetricIds();
+    private long[] lastCounts = new long[INITIAL_CAPACITY];
+    private long[] lastTimes = new long[INITIAL_CAPACITY];
+    private boolean[] read = new boolean[INITIAL_CAPACITY];
+    private long now;
+
+    /**
+     * Sets the time of the readings of the report cycle about to start.
+     *
+     * @param time current time of the reporter's clock, in milliseconds
+     */
+    synchronized void startCycle(long time) {
+        this.now = time;
+    }
+
+    /**
+     * Records the current count of a metric.
+     *
+     * @param name      name of the metric in the registry
+     * @param count     current count
+     * @param monotonic whether the count only grows, so a lower count means the metric was reset
+     * @return the change since the previous reading
+     */
+    synchronized Delta delta(String name, long count, boolean monotonic) {
+        final int id = idOf(name);
+        final Delta delta;
+        if (!read[id]) {
+            delta = new Delta(count, Double.NaN, false);
+        } else if (monotonic && count < lastCounts[id]) {
+            delta = new Delta(count, rate(count, lastTimes[id]), true);
+        } else {
+            delta = new Delta(count - lastCounts[id], rate(count - lastCounts[id], lastTimes[id]), false);
+        }
+        lastCounts[id] = count;
+        lastTimes[id] = now;
+        read[id] = true;
+        return delta;
+    }
+
+    synchronized int size() {
+        return ids.size();
+    }
+
+    private double rate(long delta, long since) {
+        final long elapsed = now - since;
+        return elapsed > 0 ? delta * 1000.0 / elapsed : Double.NaN;
+    }
+
+    private int idOf(String name) {
+        final int id = ids.idOf(name);
+        if (id == read.length) {
+            final int capacity = read.length * 2;
+            lastCounts = Arrays.copyOf(lastCounts, capacity);
+            lastTimes = Arrays.copyOf(lastTimes, capacity);
+            read = Arrays.copyOf(read, capacity);
+        }
+        return id;
+    }
+
+    private synchronized void release(String name) {
+        final int id = ids.release(name);
+        if (id >= 0) {
+            read[id] = false;
+        }
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        release(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        release(name);
+    }
+
+    /**
+     * Change of a count between two report cycles.
+     */
+    static final class Delta {
+
+        final long delta;
+        final double rate;
+        final boolean reset;
+
+        Delta(long delta, double rate, boolean reset) {
+            this.delta = delta;
+            this.rate = rate;
+            this.reset = reset;
+        }
+
+        /**
+         * @return whether the rate is known, i.e. the metric was read before
+         */
+        boolean hasRate() {
+            return !Double.isNaN(rate);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+
+import java.util.Date;
+
+/**
+ * Merges the distributions stored by the reporter into one {@link LogHistogram}, e.g. to compute the p99 of a timer
+ * across all nodes and a whole day:
+ * <pre>
+ * LogHistogram merged = DistributionQuery.merge(database, "timer_1h", "app.requests", from, to);
+ * long p99 = merged.getValueAtQuantile(0.99);
+ * </pre>
+ * Reads the {@code histogram} field of rollup documents, of histogram documents and the {@code snapshot.histogram}
+ * field of timer documents; bucketed documents hold an array of them. Documents without a distribution are skipped.
+ * Documents written with the {@link MetricSchema#COMPACT compact schema} or a {@link MetricNameDictionary} are read
+ * with the overloads taking the schema.
+ *
+ * @author aparna
+ */
+public final class DistributionQuery {
+
+    private DistributionQuery() {
+    }
+
+    /**
+     * Merges the distributions of one metric within a time range, across all reporters using that metric name.
+     *
+     * @param database       metrics database
+     * @param collectionName collection to read, e.g. {@code timer} or {@code timer_1h}
+     * @param name           metric name
+     * @param from           start of the time range, inclusive
+     * @param to             end of the time range, exclusive
+     * @return the merged distribution
+     */
+    public static LogHistogram merge(MongoDatabase database, String collectionName, String name, Date from, Date to) {
+        return merge(database, collectionName, name, from, to, MetricSchema.FULL, null);
+    }
+
+    /**
+     * Merges the distributions of one metric within a time range from documents written with the given schema.
+     *
+     * @param database       metrics database
+     * @param collectionName collection to read, e.g. {@code timer} or {@code timer_1h}
+     * @param name           metric name
+     * @param from           start of the time range, inclusive
+     * @param to             end of the time range, exclusive
+     * @param schema         field names of the documents
+     * @param names          dictionary of the metric names, or {@code null} if the names are stored as they are
+     * @return the merged distribution
+     */
+    public static LogHistogram merge(MongoDatabase database, String collectionName, String name, Date from, Date to,
+            MetricSchema schema, MetricNameDictionary names) {
+        final Object storedName = names != null ? names.lookup(name) : name;
+        if (storedName == null) {
+            return new LogHistogram();
+        }
+        return merge(database.getCollection(collectionName), Filters.and(Filters.eq(schema.name, storedName),
+                Filters.gte(schema.timestamp, from), Filters.lt(schema.timestamp, to)), schema);
+    }
+
+    /**
+     * Merges the distributions of all documents matching a filter, e.g. of several metric names or additional field
+     * values.
+     *
+     * @param collection collection to read
+     * @param filter     query filter
+     * @return the merged distribution
+     */
+    public static LogHistogram merge(MongoCollection<Document> collection, Bson filter) {
+        return merge(collection, filter, MetricSchema.FULL);
+    }
+
+    /**
+     * Merges the distributions of all documents matching a filter from documents written with the given schema. The
+     * filter must use the field names of the schema, see {@link MetricSchema#field(String)}.
+     *
+     * @param collection collection to read
+     * @param filter     query filter
+     * @param schema     field names of the documents
+     * @return the merged distribution
+     */
+    public static LogHistogram merge(MongoCollection<Document> collection, Bson filter, MetricSchema schema) {
+        final LogHistogram merged = new LogHistogram();
+        for (Document document : collection.find(filter)
+                .projection(Projections.include(schema.histogram, schema.snapshot + '.' + schema.histogram))) {
+            final Object snapshot = document.get(schema.snapshot);
+            merge(merged, document.get(schema.histogram));
+            if (snapshot instanceof Document) {
+                merge(merged, ((Document) snapshot).get(schema.histogram));
+            }
+        }
+        return merged;
+    }
+
+    private static void merge(LogHistogram merged, Object value) {
+        if (value instanceof Binary) {
+            merged.merge(LogHistogram.fromByteArray(((Binary) value).getData()));
+        } else if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                merge(merged, element);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.RawBsonDocument;
+
+/**
+ * Decides how an encoded metric document is stored in its collection.
+ *
+ * @author aparna
+ */
+interface DocumentLayout {
+
+    /**
+     * Stores every metric document as a document of its own.
+     */
+    DocumentLayout DOCUMENT_PER_SAMPLE = new DocumentLayout() {
+        @Override
+        public WriteModel<RawBsonDocument> toWriteModel(String collectionName, RawBsonDocument document) {
+            return new InsertOneModel<>(document);
+        }
+    };
+
+    /**
+     * @param collectionName collection the document is written to
+     * @param document       encoded metric document
+     * @return the write that stores the document
+     */
+    WriteModel<RawBsonDocument> toWriteModel(String collectionName, RawBsonDocument document);
+}
@@ -0,0 +1,173 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls {@link Gauge#getValue()} exactly once per gauge and report cycle. Without an executor the gauges are evaluated
+ * one after the other on the reporting thread. With an executor they are evaluated concurrently, and a gauge that has
+ * not returned within the timeout of starting to run is cancelled and skipped for this cycle; time spent queued behind
+ * other gauges does not count, unless the executor starts and completes no gauge at all within the timeout. Gauges
+ * returning {@code null} or throwing are skipped as well. On Java 21 and later an executor creating a virtual thread per
+ * task keeps a blocked gauge from holding up the others.
+ *
+ * @author aparna
+ */
+class GaugeEvaluator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GaugeEvaluator.class);
+
+    private final ExecutorService executor;
+    private final long timeoutNanos;
+
+    /**
+     * @param executor executor evaluating the gauges, or {@code null} to evaluate them on the calling thread
+     * @param timeout  time a gauge may run when evaluated on the executor
+     * @param unit     unit of {@code timeout}
+     */
+    GaugeEvaluator(ExecutorService executor, long timeout, TimeUnit unit) {
+        this.executor = executor;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @param gauges gauges to evaluate
+     * @return the non-null values by gauge name, in the order of {@code gauges}
+     */
+    Map<String, Object> evaluate(Map<String, Gauge> gauges) {
+        final Map<String, Object> values = new LinkedHashMap<>(gauges.size() * 4 / 3 + 1);
+        if (executor == null) {
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                try {
+                    put(values, entry.getKey(), entry.getValue().getValue());
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Unable to evaluate gauge {}", entry.getKey(), e);
+                }
+            }
+            return values;
+        }
+
+        final AtomicLong progress = new AtomicLong(System.nanoTime());
+        final List<Evaluation> evaluations = new ArrayList<>(gauges.size());
+        for (final Gauge gauge : gauges.values()) {
+            evaluations.add(submit(gauge, progress));
+        }
+        int i = 0;
+        for (String name : gauges.keySet()) {
+            final Evaluation evaluation = evaluations.get(i++);
+            try {
+                put(values, name, await(name, evaluation, progress));
+            } catch (ExecutionException e) {
+                LOGGER.warn("Unable to evaluate gauge {}", name, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAll(evaluations);
+                break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Waits for a gauge until it has been running for the timeout. A gauge still queued is waited for as long as the
+     * executor starts or completes another gauge within the timeout.
+     *
+     * @return the value of the gauge, or {@code null} if it was cancelled
+     */
+    private Object await(String name, Evaluation evaluation, AtomicLong progress)
+            throws ExecutionException, InterruptedException {
+        while (true) {
+            final long now = System.nanoTime();
+            final long since = evaluation.started ? evaluation.startedAt : progress.get();
+            final long remaining = since + timeoutNanos - now;
+            if (remaining <= 0 && !evaluation.future.isDone()) {
+                evaluation.future.cancel(true);
+                if (evaluation.started) {
+                    LOGGER.warn("Gauge {} did not return within {} ms, skipping it", name,
+                            TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+                } else {
+                    LOGGER.warn("Gauge {} did not start within {} ms as the executor is busy, skipping it", name,
+                            TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+                }
+                return null;
+            }
+            try {
+                return evaluation.future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // started or another gauge made progress meanwhile, recompute the deadline
+            } catch (CancellationException e) {
+                return null;
+            }
+        }
+    }
+
+    private Evaluation submit(final Gauge gauge, final AtomicLong progress) {
+        final Evaluation evaluation = new Evaluation(gauge, progress);
+        try {
+            evaluation.future = executor.submit(evaluation);
+        } catch (RejectedExecutionException e) {
+            // executor saturated or shut down, evaluate on the reporting thread instead
+            final FutureTask<Object> task = new FutureTask<>(evaluation);
+            task.run();
+            evaluation.future = task;
+        }
+        return evaluation;
+    }
+
+    private static void put(Map<String, Object> values, String name, Object value) {
+        if (value != null) {
+            values.put(name, value);
+        }
+    }
+
+    private static void cancelAll(List<Evaluation> evaluations) {
+        for (Evaluation evaluation : evaluations) {
+            evaluation.future.cancel(true);
+        }
+    }
+
+    /**
+     * Evaluation of one gauge, recording when it started so its timeout does not include the time spent queued.
+     */
+    private static final class Evaluation implements Callable<Object> {
+
+        private final Gauge gauge;
+        private final AtomicLong progress;
+        private volatile boolean started;
+        private volatile long startedAt;
+        private Future<?> future;
+
+        private Evaluation(Gauge gauge, AtomicLong progress) {
+            this.gauge = gauge;
+            this.progress = progress;
+        }
+
+        @Override
+        public Object call() {
+            startedAt = System.nanoTime();
+            started = true;
+            progress.set(startedAt);
+            try {
+                return gauge.getValue();
+            } finally {
+                progress.set(System.nanoTime());
+            }
+        }
+    }
+}
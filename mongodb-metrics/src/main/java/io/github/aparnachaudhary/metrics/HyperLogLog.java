@@ -0,0 +1,74 @@
+package io.github.aparnachaudhary.metrics;
+
+/**
+ * Estimates the number of distinct strings added, using 2<sup>precision</sup> one-byte registers regardless of how
+ * many strings are added. The standard error is about {@code 1.04 / sqrt(2^precision)}, e.g. 3% with precision 10.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author aparna
+ */
+class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * @param precision number of bits selecting the register, between 4 and 16
+     */
+    HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("precision must be between 4 and 16: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    void add(String value) {
+        final long hash = hash(value);
+        final int index = (int) (hash >>> (64 - precision));
+        // position of the first set bit after the index bits; the appended bit bounds it for all-zero remainders
+        final int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct strings added
+     */
+    long estimate() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, finished with the MurmurHash3 mixer to spread the bits.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
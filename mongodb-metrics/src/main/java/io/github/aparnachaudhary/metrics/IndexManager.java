@@ -0,0 +1,163 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ensures the indexes of the metric collections: a compound {@code {name: 1, timestamp: 1}} index for queries by
+ * metric and time range, and optionally a TTL index on {@code timestamp} that expires documents after the retention
+ * period. Existing TTL indexes with a different retention are changed in place with {@code collMod}; the TTL index
+ * created by the reporter is dropped once retention is disabled.
+ *
+ * @author aparna
+ */
+class IndexManager implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexManager.class);
+
+    static final String NAME_TIMESTAMP_INDEX = "name_timestamp";
+    static final String TTL_INDEX = "timestamp_ttl";
+    static final String NAME_TAGS_TIMESTAMP_INDEX = "name_tags_timestamp";
+
+    private final MetricCollections collections;
+    private final Collection<String> collectionNames;
+    private final Long retentionSeconds;
+    private final Document nameTimestampKeys;
+    private final Document timestampKeys;
+    private final Document nameTagsTimestampKeys;
+
+    /**
+     * @param collections      collection handles
+     * @param collectionNames  collections to index
+     * @param retentionSeconds retention of the TTL index, or {@code null} for no TTL index
+     * @param schema           field names of the documents
+     * @param tagKeys          tags of the {@code {name, tags.<key>..., timestamp}} index, or empty for no such index
+     */
+    IndexManager(MetricCollections collections, Collection<String> collectionNames, Long retentionSeconds,
+            MetricSchema schema, List<String> tagKeys) {
+        this.collections = collections;
+        this.collectionNames = new ArrayList<>(collectionNames);
+        this.retentionSeconds = retentionSeconds;
+        this.nameTimestampKeys = new Document(schema.name, 1).append(schema.timestamp, 1);
+        this.timestampKeys = new Document(schema.timestamp, 1);
+        this.nameTagsTimestampKeys = tagKeys.isEmpty() ? null : tagIndexKeys(schema, tagKeys);
+    }
+
+    /**
+     * @param schema  field names of the documents
+     * @param tagKeys tag keys in index order
+     * @return the keys of the compound {@code {name: 1, tags.<key>: 1, ..., timestamp: 1}} index
+     */
+    static Document tagIndexKeys(MetricSchema schema, List<String> tagKeys) {
+        final Document keys = new Document(schema.name, 1);
+        for (String tagKey : tagKeys) {
+            keys.append(schema.field("tags." + tagKey), 1);
+        }
+        return keys.append(schema.timestamp, 1);
+    }
+
+    /**
+     * Ensures the indexes on a daemon thread.
+     */
+    void startInBackground() {
+        final Thread thread = new Thread(this, "mongodb-reporter-indexes");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        for (String collectionName : collectionNames) {
+            try {
+                ensureIndexes(collections.get(collectionName));
+            } catch (MongoException e) {
+                LOGGER.warn("Unable to ensure indexes of collection {}", collectionName, e);
+            }
+        }
+    }
+
+    void ensureIndexes(MongoCollection<RawBsonDocument> collection) {
+        final List<Document> indexes = collection.listIndexes().into(new ArrayList<Document>());
+
+        if (find(indexes, nameTimestampKeys) == null) {
+            collection.createIndex(nameTimestampKeys, new IndexOptions().name(NAME_TIMESTAMP_INDEX).background(true));
+            LOGGER.info("Created index {} on {}", NAME_TIMESTAMP_INDEX, collection.getNamespace());
+        }
+        if (nameTagsTimestampKeys != null && find(indexes, nameTagsTimestampKeys) == null) {
+            // a changed list of tags gets a new index; drop the old one first, as the name stays the same
+            final Document previous = findByName(indexes, NAME_TAGS_TIMESTAMP_INDEX);
+            if (previous != null) {
+                collection.dropIndex(NAME_TAGS_TIMESTAMP_INDEX);
+            }
+            collection.createIndex(nameTagsTimestampKeys,
+                    new IndexOptions().name(NAME_TAGS_TIMESTAMP_INDEX).background(true));
+            LOGGER.info("Created index {} on {}", NAME_TAGS_TIMESTAMP_INDEX, collection.getNamespace());
+        }
+
+        final Document ttlIndex = find(indexes, timestampKeys);
+        if (retentionSeconds == null) {
+            if (ttlIndex != null && TTL_INDEX.equals(ttlIndex.getString("name"))) {
+                collection.dropIndex(TTL_INDEX);
+                LOGGER.info("Dropped index {} on {}, retention is disabled", TTL_INDEX, collection.getNamespace());
+            }
+            return;
+        }
+        final Object expireAfterSeconds = ttlIndex == null ? null : ttlIndex.get("expireAfterSeconds");
+        if (ttlIndex == null) {
+            createTtlIndex(collection);
+        } else if (!(expireAfterSeconds instanceof Number)) {
+            collection.dropIndex(ttlIndex.getString("name"));
+            createTtlIndex(collection);
+        } else if (((Number) expireAfterSeconds).longValue() != retentionSeconds) {
+            collections.getDatabase().runCommand(new Document("collMod", collection.getNamespace().getCollectionName())
+                    .append("index", new Document("keyPattern", timestampKeys)
+                            .append("expireAfterSeconds", retentionSeconds)));
+            LOGGER.info("Changed retention of {} from {} to {} seconds", collection.getNamespace(), expireAfterSeconds,
+                    retentionSeconds);
+        }
+    }
+
+    private void createTtlIndex(MongoCollection<RawBsonDocument> collection) {
+        collection.createIndex(timestampKeys, new IndexOptions().name(TTL_INDEX).background(true)
+                .expireAfter(retentionSeconds, TimeUnit.SECONDS));
+        LOGGER.info("Created index {} on {} expiring after {} seconds", TTL_INDEX, collection.getNamespace(),
+                retentionSeconds);
+    }
+
+    private static Document find(List<Document> indexes, Document keys) {
+        for (Document index : indexes) {
+            if (keys.equals(normalize((Document) index.get("key")))) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static Document findByName(List<Document> indexes, String name) {
+        for (Document index : indexes) {
+            if (name.equals(index.getString("name"))) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static Document normalize(Document keys) {
+        final Document normalized = new Document();
+        for (String key : keys.keySet()) {
+            final Object direction = keys.get(key);
+            normalized.append(key, direction instanceof Number ? ((Number) direction).intValue() : direction);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.aparnachaudhary.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parses names whose dot-separated segments end with {@code key=value} tags, e.g.
+ * {@code http.server.requests.status=500.uri=/api/x} into the name {@code http.server.requests} and the tags
+ * {@code { status: "500", uri: "/api/x" }}. A segment without {@code =} after the first tag belongs to the value of the
+ * preceding tag, so values may contain dots, e.g. {@code host=db1.example.com}. Names without tags are stored as they
+ * are.
+ *
+ * @author aparna
+ */
+public class KeyValueNameParser implements MetricNameParser {
+
+    @Override
+    public TaggedName parse(String name) {
+        final String[] segments = name.split("\\.", -1);
+        final StringBuilder base = new StringBuilder();
+        final Map<String, String> tags = new LinkedHashMap<>();
+        String key = null;
+        for (String segment : segments) {
+            final int separator = segment.indexOf('=');
+            if (separator > 0) {
+                key = segment.substring(0, separator);
+                tags.put(key, segment.substring(separator + 1));
+            } else if (key != null) {
+                tags.put(key, tags.get(key) + '.' + segment);
+            } else {
+                if (base.length() > 0) {
+                    base.append('.');
+                }
+                base.append(segment);
+            }
+        }
+        if (tags.isEmpty() || base.length() == 0) {
+            return null;
+        }
+        return new TaggedName(base.toString(), tags);
+    }
+}
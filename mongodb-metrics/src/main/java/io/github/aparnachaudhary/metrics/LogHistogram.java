@@ -0,0 +1,233 @@
+package io.github.aparnachaudhary.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A mergeable histogram with logarithmic buckets in the style of HdrHistogram. Values below 128 have a bucket of their
+ * own; larger values share a bucket with values of the same power of two that agree in the 7 most significant bits, so
+ * every value is recorded with a relative error below 1%. Two histograms are merged by adding the counts of their
+ * buckets, which makes percentiles of merged histograms exact up to that error. Negative values are recorded as 0.
+ * <p>
+ * Only the range of buckets between the lowest and highest recorded value is allocated. Instances are not thread-safe.
+ * <p>
+ * The reporter stores histograms in the {@code histogram} field of rollup documents and, if enabled, of histogram and
+ * timer documents; {@link DistributionQuery} merges them back.
+ *
+ * @author aparna
+ */
+public class LogHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+    private static final byte FORMAT_VERSION = 1;
+
+    private long[] counts = new long[0];
+    private int offset;
+    private long totalCount;
+
+    /**
+     * @param values the values to record, e.g. from {@link com.codahale.metrics.Snapshot#getValues()}
+     * @return a histogram of the values
+     */
+    public static LogHistogram of(long[] values) {
+        final LogHistogram histogram = new LogHistogram();
+        for (long value : values) {
+            histogram.record(value, 1);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param value value to record
+     * @param count number of times the value occurred
+     */
+    public void record(long value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        final int index = indexOf(value);
+        ensureCapacity(index, index);
+        counts[index - offset] += count;
+        totalCount += count;
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other histogram to add
+     */
+    public void merge(LogHistogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        ensureCapacity(other.offset, other.offset + other.counts.length - 1);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[other.offset + i - offset] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @param quantile quantile between 0 and 1
+     * @return the value at the quantile, or 0 if nothing was recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(quantile, 0.0), 1.0) * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return representativeValue(offset + i);
+            }
+        }
+        return representativeValue(offset + counts.length - 1);
+    }
+
+    public long getMin() {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                return lowestValue(offset + i);
+            }
+        }
+        return 0;
+    }
+
+    public long getMax() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return highestValue(offset + i);
+            }
+        }
+        return 0;
+    }
+
+    public double getMean() {
+        if (totalCount == 0) {
+            return 0.0;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += (double) counts[i] * representativeValue(offset + i);
+        }
+        return sum / totalCount;
+    }
+
+    /**
+     * Encodes the non-empty buckets as pairs of variable-length integers: the distance to the previous bucket index and
+     * the count of the bucket, preceded by a format version byte.
+     *
+     * @return the encoded histogram
+     */
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        out.write(FORMAT_VERSION);
+        int previous = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                writeVarLong(out, offset + i - previous);
+                writeVarLong(out, counts[i]);
+                previous = offset + i;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param bytes histogram encoded with {@link #toByteArray()}
+     * @return the decoded histogram
+     */
+    public static LogHistogram fromByteArray(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported histogram encoding");
+        }
+        final LogHistogram histogram = new LogHistogram();
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        long index = -1;
+        while (buffer.hasRemaining()) {
+            index += readVarLong(buffer);
+            final long count = readVarLong(buffer);
+            if (index > indexOf(Long.MAX_VALUE) || count < 0) {
+                throw new IllegalArgumentException("Corrupt histogram encoding");
+            }
+            histogram.ensureCapacity((int) index, (int) index);
+            histogram.counts[(int) index - histogram.offset] += count;
+            histogram.totalCount += count;
+        }
+        return histogram;
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long lowestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    static long highestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    private static long representativeValue(int index) {
+        final long lowest = lowestValue(index);
+        return lowest + (highestValue(index) - lowest) / 2;
+    }
+
+    private void ensureCapacity(int lowIndex, int highIndex) {
+        if (counts.length == 0) {
+            counts = new long[highIndex - lowIndex + 1];
+            offset = lowIndex;
+            return;
+        }
+        final int low = Math.min(lowIndex, offset);
+        final int high = Math.max(highIndex, offset + counts.length - 1);
+        if (low == offset && high == offset + counts.length - 1) {
+            return;
+        }
+        final long[] grown = new long[high - low + 1];
+        System.arraycopy(counts, 0, grown, offset - low, counts.length);
+        counts = grown;
+        offset = low;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && buffer.hasRemaining(); shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt histogram encoding");
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.aparnachaudhary.metrics;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Fields of histogram, meter and timer documents that can be disabled with
+ * {@link MongoDBReporter.Builder#disabledMetricAttributes(Set)}. Disabled attributes are neither computed nor stored.
+ *
+ * @author aparna
+ */
+public enum MetricAttribute {
+
+    MAX("max"),
+    MEAN("mean"),
+    MIN("min"),
+    STDDEV("stdDev"),
+    P50("median"),
+    P75("p75"),
+    P95("p95"),
+    P98("p98"),
+    P99("p99"),
+    P999("p999"),
+    COUNT("count"),
+    M1_RATE("m1Rate"),
+    M5_RATE("m5Rate"),
+    M15_RATE("m15Rate"),
+    MEAN_RATE("meanRate");
+
+    /**
+     * Attributes read from the snapshot of a histogram or timer.
+     */
+    static final Set<MetricAttribute> SNAPSHOT_ATTRIBUTES = Collections.unmodifiableSet(EnumSet.range(MAX, P999));
+
+    private final String code;
+
+    MetricAttribute(String code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the full name of the document field
+     */
+    public String getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoClientException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.RawBsonDocument;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the collection handles the reporter writes to once and reuses them for every report cycle. With a lazy
+ * connection the database is only known once the reporter has connected; until then no handles are available.
+ *
+ * @author aparna
+ */
+class MetricCollections {
+
+    static final String GAUGE = "gauge";
+    static final String COUNTER = "counter";
+    static final String HISTOGRAM = "histogram";
+    static final String METERED = "metered";
+    static final String TIMER = "timer";
+
+    /**
+     * The collections of the raw metric documents.
+     */
+    static final List<String> METRIC_COLLECTIONS = Collections.unmodifiableList(
+            Arrays.asList(GAUGE, COUNTER, HISTOGRAM, METERED, TIMER));
+
+    private final ConcurrentMap<String, MongoCollection<RawBsonDocument>> collections = new ConcurrentHashMap<>();
+    private volatile MongoDatabase mongoDatabase;
+
+    /**
+     * Creates the handles of a database that is not connected yet, see {@link #connect(MongoDatabase)}.
+     */
+    MetricCollections() {
+    }
+
+    MetricCollections(MongoDatabase mongoDatabase) {
+        connect(mongoDatabase);
+    }
+
+    /**
+     * Sets the database once it is connected.
+     *
+     * @param mongoDatabase database to write to
+     */
+    void connect(MongoDatabase mongoDatabase) {
+        this.mongoDatabase = mongoDatabase;
+        for (String collectionName : METRIC_COLLECTIONS) {
+            get(collectionName);
+        }
+    }
+
+    boolean isConnected() {
+        return mongoDatabase != null;
+    }
+
+    /**
+     * @param collectionName name of the collection
+     * @return the cached handle for the collection
+     * @throws MongoClientException if the database is not connected yet
+     */
+    MongoCollection<RawBsonDocument> get(String collectionName) {
+        MongoCollection<RawBsonDocument> collection = collections.get(collectionName);
+        if (collection == null) {
+            collection = getDatabase().getCollection(collectionName, RawBsonDocument.class);
+            final MongoCollection<RawBsonDocument> existing = collections.putIfAbsent(collectionName, collection);
+            if (existing != null) {
+                collection = existing;
+            }
+        }
+        return collection;
+    }
+
+    /**
+     * @return the database
+     * @throws MongoClientException if the database is not connected yet
+     */
+    MongoDatabase getDatabase() {
+        final MongoDatabase database = mongoDatabase;
+        if (database == null) {
+            throw new MongoClientException("Not connected to MongoDB yet");
+        }
+        return database;
+    }
+}
@@ -0,0 +1,439 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Snapshot;
+import com.mongodb.MongoException;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes metric values straight into BSON. Values are read from the {@link Snapshot}, {@link Metered} or counter and
+ * written with a {@link BsonBinaryWriter}, so no entity, map or {@link org.bson.Document} is built in between. The
+ * documents have the same layout as the entities in {@link io.github.aparnachaudhary.metrics.model}, with the field
+ * names of the configured {@link MetricSchema}.
+ * <p>
+ * Instances are thread-safe; every thread encodes into its own reusable buffer.
+ *
+ * @author aparna
+ */
+class MetricDocumentEncoder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricDocumentEncoder.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    /**
+     * Field names written by the encoder or the bucketed layout; additional fields with these names are ignored.
+     */
+    static final Set<String> RESERVED_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "_id", "name", "timestamp", "value", "count", "m1Rate", "m5Rate", "m15Rate", "meanRate", "snapshot",
+            "max", "mean", "min", "stdDev", "median", "p75", "p95", "p98", "p99", "p999", "samples", "sum", "last",
+            "histogram", "timestamps", "delta", "rate", "reset", "tags")));
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    private final CodecRegistry codecRegistry;
+    private final Map<String, Object> additionalFields;
+    private final boolean distributions;
+    private final boolean deterministicIds;
+    private final MetricSchema schema;
+    private final MetricNameDictionary names;
+    private volatile boolean dictionaryFailing;
+    private final MetricNameCache taggedNames;
+    private final Set<MetricAttribute> histogramAttributes;
+    private final Set<MetricAttribute> meteredAttributes;
+    private final Set<MetricAttribute> timerAttributes;
+    private final ThreadLocal<BasicOutputBuffer> buffers = new ThreadLocal<BasicOutputBuffer>() {
+        @Override
+        protected BasicOutputBuffer initialValue() {
+            return new BasicOutputBuffer(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * @param codecRegistry    codecs for gauge values and additional fields
+     * @param additionalFields fields added to every document
+     * @param options          how the documents are encoded
+     */
+    MetricDocumentEncoder(CodecRegistry codecRegistry, Map<String, Object> additionalFields, Options options) {
+        this.codecRegistry = codecRegistry;
+        this.taggedNames = options.taggedNames;
+        this.histogramAttributes = enabled(options.disabledAttributes.get(MetricCollections.HISTOGRAM));
+        this.meteredAttributes = enabled(options.disabledAttributes.get(MetricCollections.METERED));
+        this.timerAttributes = enabled(options.disabledAttributes.get(MetricCollections.TIMER));
+        this.distributions = options.distributions;
+        this.deterministicIds = options.deterministicIds;
+        this.schema = options.schema;
+        this.names = options.names;
+        this.additionalFields = new LinkedHashMap<>();
+        if (additionalFields != null) {
+            for (Map.Entry<String, Object> field : additionalFields.entrySet()) {
+                if (!schema.isReserved(field.getKey())) {
+                    this.additionalFields.put(field.getKey(), field.getValue());
+                }
+            }
+        }
+    }
+
+    private static Set<MetricAttribute> enabled(Set<MetricAttribute> disabled) {
+        final Set<MetricAttribute> enabled = EnumSet.allOf(MetricAttribute.class);
+        if (disabled != null) {
+            enabled.removeAll(disabled);
+        }
+        return enabled;
+    }
+
+    /**
+     * @param collectionName {@link MetricCollections#HISTOGRAM} or {@link MetricCollections#TIMER}
+     * @return whether documents of the collection contain values of the snapshot; if not, the snapshot passed to
+     * {@link #encodeHistogram} and {@link #encodeTimer} may be {@code null}
+     */
+    boolean needsSnapshot(String collectionName) {
+        final Set<MetricAttribute> attributes = MetricCollections.TIMER.equals(collectionName)
+                ? timerAttributes
+                : histogramAttributes;
+        return distributions || !Collections.disjoint(attributes, MetricAttribute.SNAPSHOT_ATTRIBUTES);
+    }
+
+    RawBsonDocument encodeGauge(String name, long timestamp, Object value) {
+        final BsonBinaryWriter writer = start(name, timestamp);
+        writer.writeName(schema.value);
+        writeValue(writer, value);
+        return finish(writer);
+    }
+
+    RawBsonDocument encodeCounter(String name, long timestamp, long count) {
+        return encodeCounter(name, timestamp, count, null);
+    }
+
+    RawBsonDocument encodeCounter(String name, long timestamp, long count, DeltaTracker.Delta delta) {
+        final BsonBinaryWriter writer = start(name, timestamp);
+        writer.writeInt64(schema.count, count);
+        writeDelta(writer, delta);
+        return finish(writer);
+    }
+
+    RawBsonDocument encodeHistogram(String name, long timestamp, long count, Snapshot snapshot) {
+        final BsonBinaryWriter writer = start(name, timestamp);
+        if (histogramAttributes.contains(MetricAttribute.COUNT)) {
+            writer.writeInt64(schema.count, count);
+        }
+        if (snapshot != null) {
+            writeSnapshot(writer, histogramAttributes, snapshot);
+        }
+        return finish(writer);
+    }
+
+    RawBsonDocument encodeMetered(String name, long timestamp, Metered meter) {
+        return encodeMetered(name, timestamp, meter, null);
+    }
+
+    RawBsonDocument encodeMetered(String name, long timestamp, Metered meter, DeltaTracker.Delta delta) {
+        final BsonBinaryWriter writer = start(name, timestamp);
+        writeMetered(writer, meteredAttributes, meter);
+        writeDelta(writer, delta);
+        return finish(writer);
+    }
+
+    RawBsonDocument encodeTimer(String name, long timestamp, Metered timer, Snapshot snapshot) {
+        final BsonBinaryWriter writer = start(name, timestamp);
+        writeMetered(writer, timerAttributes, timer);
+        if (snapshot != null && needsSnapshot(MetricCollections.TIMER)) {
+            writer.writeStartDocument(schema.snapshot);
+            writeSnapshot(writer, timerAttributes, snapshot);
+            writer.writeEndDocument();
+        }
+        return finish(writer);
+    }
+
+    /**
+     * Encodes the aggregate of a counter, meter or gauge over a rollup window.
+     */
+    RawBsonDocument encodeValueRollup(String name, long windowStart, long samples, double min, double max, double sum,
+            double last) {
+        final BsonBinaryWriter writer = start(name, windowStart);
+        writer.writeInt64(schema.samples, samples);
+        writer.writeDouble(schema.min, min);
+        writer.writeDouble(schema.max, max);
+        writer.writeDouble(schema.sum, sum);
+        writer.writeDouble(schema.last, last);
+        return finish(writer);
+    }
+
+    /**
+     * Encodes the aggregate of a histogram or timer over a rollup window: the percentiles of the merged distribution
+     * and the encoded distribution itself, so windows and reporters can be merged later on.
+     */
+    RawBsonDocument encodeDistributionRollup(String name, long windowStart, long samples, long count,
+            LogHistogram histogram) {
+        final BsonBinaryWriter writer = start(name, windowStart);
+        writer.writeInt64(schema.samples, samples);
+        writer.writeInt64(schema.count, count);
+        writer.writeStartDocument(schema.snapshot);
+        writer.writeInt64(schema.max, histogram.getMax());
+        writer.writeDouble(schema.mean, histogram.getMean());
+        writer.writeInt64(schema.min, histogram.getMin());
+        writer.writeDouble(schema.median, histogram.getValueAtQuantile(0.5));
+        writer.writeDouble(schema.p75, histogram.getValueAtQuantile(0.75));
+        writer.writeDouble(schema.p95, histogram.getValueAtQuantile(0.95));
+        writer.writeDouble(schema.p98, histogram.getValueAtQuantile(0.98));
+        writer.writeDouble(schema.p99, histogram.getValueAtQuantile(0.99));
+        writer.writeDouble(schema.p999, histogram.getValueAtQuantile(0.999));
+        writer.writeEndDocument();
+        writer.writeBinaryData(schema.histogram, new BsonBinary(histogram.toByteArray()));
+        return finish(writer);
+    }
+
+    private BsonBinaryWriter start(String name, long timestamp) {
+        final BasicOutputBuffer buffer = buffers.get();
+        buffer.truncateToPosition(0);
+        final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+        writer.writeStartDocument();
+        final TaggedName tagged = taggedNames != null ? taggedNames.parsed(name) : null;
+        final String baseName = tagged != null ? tagged.getName() : name;
+        final Integer id = names != null ? idOf(baseName) : null;
+        if (deterministicIds) {
+            // the id of the base name is shared by all tag combinations, the full name is not
+            writer.writeString("_id", idOf(id != null && tagged == null ? id.toString() : name, timestamp));
+        }
+        if (id != null) {
+            writer.writeInt32(schema.name, id);
+        } else {
+            writer.writeString(schema.name, baseName);
+        }
+        writer.writeDateTime(schema.timestamp, timestamp);
+        if (tagged != null) {
+            writer.writeStartDocument(schema.tags);
+            for (Map.Entry<String, String> tag : tagged.getTags().entrySet()) {
+                writer.writeString(tag.getKey(), tag.getValue());
+            }
+            writer.writeEndDocument();
+        }
+        return writer;
+    }
+
+    private Integer idOf(String name) {
+        try {
+            final int id = names.idOf(name);
+            dictionaryFailing = false;
+            return id;
+        } catch (MongoException e) {
+            // warn once per outage rather than once per metric and cycle
+            if (!dictionaryFailing) {
+                LOGGER.warn("Unable to look up metric name ids, storing names until the dictionary is reachable: {}",
+                        e.getMessage());
+                dictionaryFailing = true;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param name      metric name, or its id in the {@link MetricNameDictionary}
+     * @param timestamp time of the sample
+     * @return the deterministic {@code _id} of the sample
+     */
+    static String idOf(String name, long timestamp) {
+        return name + '@' + timestamp;
+    }
+
+    private RawBsonDocument finish(BsonBinaryWriter writer) {
+        for (Map.Entry<String, Object> field : additionalFields.entrySet()) {
+            writer.writeName(field.getKey());
+            writeValue(writer, field.getValue());
+        }
+        writer.writeEndDocument();
+        final byte[] bytes = buffers.get().toByteArray();
+        writer.close();
+        return new RawBsonDocument(bytes);
+    }
+
+    private void writeMetered(BsonWriter writer, Set<MetricAttribute> attributes, Metered meter) {
+        if (attributes.contains(MetricAttribute.COUNT)) {
+            writer.writeInt64(schema.count, meter.getCount());
+        }
+        if (attributes.contains(MetricAttribute.M1_RATE)) {
+            writer.writeDouble(schema.m1Rate, meter.getOneMinuteRate());
+        }
+        if (attributes.contains(MetricAttribute.M5_RATE)) {
+            writer.writeDouble(schema.m5Rate, meter.getFiveMinuteRate());
+        }
+        if (attributes.contains(MetricAttribute.M15_RATE)) {
+            writer.writeDouble(schema.m15Rate, meter.getFifteenMinuteRate());
+        }
+        if (attributes.contains(MetricAttribute.MEAN_RATE)) {
+            writer.writeDouble(schema.meanRate, meter.getMeanRate());
+        }
+    }
+
+    private void writeDelta(BsonWriter writer, DeltaTracker.Delta delta) {
+        if (delta == null) {
+            return;
+        }
+        writer.writeInt64(schema.delta, delta.delta);
+        if (delta.hasRate()) {
+            writer.writeDouble(schema.rate, delta.rate);
+        }
+        if (delta.reset) {
+            writer.writeBoolean(schema.reset, true);
+        }
+    }
+
+    private void writeSnapshot(BsonWriter writer, Set<MetricAttribute> attributes, Snapshot snapshot) {
+        if (attributes.contains(MetricAttribute.MAX)) {
+            writer.writeInt64(schema.max, snapshot.getMax());
+        }
+        if (attributes.contains(MetricAttribute.MEAN)) {
+            writer.writeDouble(schema.mean, snapshot.getMean());
+        }
+        if (attributes.contains(MetricAttribute.MIN)) {
+            writer.writeInt64(schema.min, snapshot.getMin());
+        }
+        if (attributes.contains(MetricAttribute.STDDEV)) {
+            writer.writeDouble(schema.stdDev, snapshot.getStdDev());
+        }
+        if (attributes.contains(MetricAttribute.P50)) {
+            writer.writeDouble(schema.median, snapshot.getMedian());
+        }
+        if (attributes.contains(MetricAttribute.P75)) {
+            writer.writeDouble(schema.p75, snapshot.get75thPercentile());
+        }
+        if (attributes.contains(MetricAttribute.P95)) {
+            writer.writeDouble(schema.p95, snapshot.get95thPercentile());
+        }
+        if (attributes.contains(MetricAttribute.P98)) {
+            writer.writeDouble(schema.p98, snapshot.get98thPercentile());
+        }
+        if (attributes.contains(MetricAttribute.P99)) {
+            writer.writeDouble(schema.p99, snapshot.get99thPercentile());
+        }
+        if (attributes.contains(MetricAttribute.P999)) {
+            writer.writeDouble(schema.p999, snapshot.get999thPercentile());
+        }
+        if (distributions) {
+            writer.writeBinaryData(schema.histogram,
+                    new BsonBinary(LogHistogram.of(snapshot.getValues()).toByteArray()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(BsonWriter writer, Object value) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof Map) {
+            writer.writeStartDocument();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeName(String.valueOf(entry.getKey()));
+                writeValue(writer, entry.getValue());
+            }
+            writer.writeEndDocument();
+        } else if (value instanceof Iterable) {
+            writer.writeStartArray();
+            for (Object element : (Iterable<?>) value) {
+                writeValue(writer, element);
+            }
+            writer.writeEndArray();
+        } else {
+            writeValue(writer, value, (Class) value.getClass());
+        }
+    }
+
+    private <T> void writeValue(BsonWriter writer, T value, Class<T> type) {
+        final Codec<T> codec;
+        try {
+            codec = codecRegistry.get(type);
+        } catch (CodecConfigurationException e) {
+            writer.writeString(String.valueOf(value));
+            return;
+        }
+        ENCODER_CONTEXT.encodeWithChildContext(codec, writer, value);
+    }
+
+    /**
+     * Settings of a {@link MetricDocumentEncoder}. The defaults store every attribute under the
+     * {@link MetricSchema#FULL} field names, with the metric name as it is and no {@code _id}.
+     */
+    static final class Options {
+
+        private boolean distributions;
+        private boolean deterministicIds;
+        private MetricSchema schema = MetricSchema.FULL;
+        private MetricNameDictionary names;
+        private Map<String, Set<MetricAttribute>> disabledAttributes = Collections.emptyMap();
+        private MetricNameCache taggedNames;
+
+        /**
+         * @param distributions whether to add the encoded {@link LogHistogram} of the snapshot values to histogram and
+         *                      timer documents
+         * @return {@code this}
+         */
+        Options distributions(boolean distributions) {
+            this.distributions = distributions;
+            return this;
+        }
+
+        /**
+         * @param deterministicIds whether to set the {@code _id} of every document to {@code <name>@<timestamp>}, so a
+         *                         document written twice is rejected as duplicate
+         * @return {@code this}
+         */
+        Options deterministicIds(boolean deterministicIds) {
+            this.deterministicIds = deterministicIds;
+            return this;
+        }
+
+        /**
+         * @param schema field names of the documents
+         * @return {@code this}
+         */
+        Options schema(MetricSchema schema) {
+            this.schema = schema;
+            return this;
+        }
+
+        /**
+         * @param names dictionary replacing metric names by ids, or {@code null} to store the names
+         * @return {@code this}
+         */
+        Options names(MetricNameDictionary names) {
+            this.names = names;
+            return this;
+        }
+
+        /**
+         * @param disabledAttributes attributes neither computed nor stored, by collection name
+         * @return {@code this}
+         */
+        Options disabledAttributes(Map<String, Set<MetricAttribute>> disabledAttributes) {
+            this.disabledAttributes = disabledAttributes;
+            return this;
+        }
+
+        /**
+         * @param taggedNames cache of the names split into base name and {@code tags}, or {@code null} to store the
+         *                    names as they are
+         * @return {@code this}
+         */
+        Options taggedNames(MetricNameCache taggedNames) {
+            this.taggedNames = taggedNames;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.aparnachaudhary.metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense integer ids to metric names, so per-metric state can be kept in primitive arrays indexed by id. Ids of
+ * released names are reused before new ones are handed out, so the arrays only grow with the number of metrics
+ * registered at the same time. Not thread-safe; callers synchronize.
+ *
+ * @author aparna
+ */
+class MetricIds {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+
+    /**
+     * Returns the id of a name, assigning one if the name has none. A new id is at most the number of ids handed out
+     * so far, so arrays indexed by id need to grow when it equals their length.
+     *
+     * @param name metric name
+     * @return the id of the name
+     */
+    int idOf(String name) {
+        final Integer existing = ids.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        ids.put(name, id);
+        return id;
+    }
+
+    /**
+     * @param name metric name
+     * @return the id the name had, now free for reuse, or {@code -1} if the name had none
+     */
+    int release(String name) {
+        final Integer id = ids.remove(name);
+        if (id == null) {
+            return -1;
+        }
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+        return id;
+    }
+
+    /**
+     * @return the number of names with an id
+     */
+    int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the prefixed name of each metric so it is built once instead of on every report cycle, and, with a
+ * {@link MetricNameParser}, the base name and tags parsed from it. Entries are evicted when the metric is removed from
+ * the registry.
+ *
+ * @author aparna
+ */
+class MetricNameCache extends MetricRegistryListener.Base {
+
+    private static final TaggedName UNTAGGED = new TaggedName("", Collections.<String, String>emptyMap());
+
+    private final String prefix;
+    private final MetricNameParser parser;
+    private final ConcurrentMap<String, String> names = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TaggedName> parsed = new ConcurrentHashMap<>();
+
+    MetricNameCache(String prefix) {
+        this(prefix, null);
+    }
+
+    /**
+     * @param prefix prefix of the metric names, may be {@code null}
+     * @param parser parser of the prefixed names, or {@code null} to store names as they are
+     */
+    MetricNameCache(String prefix, MetricNameParser parser) {
+        this.prefix = prefix;
+        this.parser = parser;
+    }
+
+    /**
+     * @param name name of the metric in the registry
+     * @return the name with the configured prefix
+     */
+    String prefixed(String name) {
+        if (prefix == null || prefix.isEmpty()) {
+            return name;
+        }
+        String prefixed = names.get(name);
+        if (prefixed == null) {
+            prefixed = MetricRegistry.name(prefix, name);
+            names.put(name, prefixed);
+        }
+        return prefixed;
+    }
+
+    /**
+     * @param prefixedName name with the configured prefix, as returned by {@link #prefixed(String)}
+     * @return the base name and tags, or {@code null} if the name has no tags or no parser is configured
+     */
+    TaggedName parsed(String prefixedName) {
+        if (parser == null) {
+            return null;
+        }
+        TaggedName tagged = parsed.get(prefixedName);
+        if (tagged == null) {
+            final TaggedName result = parser.parse(prefixedName);
+            tagged = result != null ? result : UNTAGGED;
+            parsed.put(prefixedName, tagged);
+        }
+        return tagged == UNTAGGED ? null : tagged;
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    int parsedSize() {
+        return parsed.size();
+    }
+
+    private void evict(String name) {
+        final String prefixed = names.remove(name);
+        if (parser != null) {
+            parsed.remove(prefixed != null ? prefixed : name);
+        }
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        evict(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        evict(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        evict(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        evict(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        evict(name);
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps metric names to integer ids, stored in the {@value #COLLECTION_NAME} collection as
+ * {@code { _id: 42, name: "app.requests" }}. Metric documents then store the id instead of the name. Ids are assigned
+ * on first use and shared by all reporters writing to the database; a unique index on {@code name} ensures a name keeps
+ * the id it was assigned first. Both directions are cached, so the collection is only read for names and ids not seen
+ * before.
+ *
+ * @author aparna
+ */
+public class MetricNameDictionary {
+
+    /**
+     * Name of the dictionary collection.
+     */
+    public static final String COLLECTION_NAME = "metric_names";
+
+    private static final String ID = "_id";
+    private static final String NAME = "name";
+
+    private final MetricCollections collections;
+    private volatile MongoCollection<Document> collection;
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> names = new ConcurrentHashMap<>();
+    private boolean indexed;
+    private int nextId;
+
+    /**
+     * @param database metrics database
+     */
+    public MetricNameDictionary(MongoDatabase database) {
+        this.collections = null;
+        this.collection = database.getCollection(COLLECTION_NAME);
+    }
+
+    /**
+     * @param collections collection handles of the reporter, possibly not connected yet
+     */
+    MetricNameDictionary(MetricCollections collections) {
+        this.collections = collections;
+    }
+
+    /**
+     * Returns the id of a metric name without assigning one, e.g. to query the metric.
+     *
+     * @param name metric name
+     * @return the id of the name, or {@code null} if no reporter has written the metric yet
+     */
+    public Integer lookup(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            final Document entry = collection().find(Filters.eq(NAME, name)).first();
+            if (entry != null) {
+                id = cache(entry);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param id id of a metric name
+     * @return the metric name, or {@code null} if the id is unknown
+     */
+    public String nameOf(int id) {
+        String name = names.get(id);
+        if (name == null) {
+            final Document entry = collection().find(Filters.eq(ID, id)).first();
+            if (entry != null) {
+                cache(entry);
+                name = entry.getString(NAME);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns the id of a metric name, assigning the next free id if the name has none yet.
+     *
+     * @param name metric name
+     * @return the id of the name
+     * @throws com.mongodb.MongoException if the dictionary cannot be read or written
+     */
+    int idOf(String name) {
+        final Integer id = ids.get(name);
+        return id != null ? id : assign(name);
+    }
+
+    private synchronized int assign(String name) {
+        final Integer existing = lookup(name);
+        if (existing != null) {
+            return existing;
+        }
+        if (!indexed) {
+            collection().createIndex(new Document(NAME, 1), new IndexOptions().unique(true));
+            indexed = true;
+        }
+        while (true) {
+            if (nextId == 0) {
+                final Document last = collection().find().sort(Sorts.descending(ID)).first();
+                nextId = last == null ? 1 : last.getInteger(ID) + 1;
+            }
+            try {
+                collection().insertOne(new Document(ID, nextId).append(NAME, name));
+                return cache(new Document(ID, nextId++).append(NAME, name));
+            } catch (MongoWriteException e) {
+                if (ErrorCategory.fromErrorCode(e.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                // another reporter took the id or registered the name first
+                final Integer registered = lookup(name);
+                if (registered != null) {
+                    return registered;
+                }
+                nextId = 0;
+            }
+        }
+    }
+
+    private MongoCollection<Document> collection() {
+        MongoCollection<Document> handle = collection;
+        if (handle == null) {
+            handle = collections.getDatabase().getCollection(COLLECTION_NAME);
+            collection = handle;
+        }
+        return handle;
+    }
+
+    private int cache(Document entry) {
+        final int id = entry.getInteger(ID);
+        final String name = entry.getString(NAME);
+        ids.put(name, id);
+        names.put(id, name);
+        return id;
+    }
+}
@@ -0,0 +1,18 @@
+package io.github.aparnachaudhary.metrics;
+
+/**
+ * Splits metric names into a base name and tags, stored as {@code name} and as the {@code tags} subdocument, so
+ * queries can filter on tags with an index instead of matching the name with a regular expression. Each name is parsed
+ * once and the result cached until the metric is removed from the registry, so implementations need not be fast.
+ *
+ * @author aparna
+ * @see KeyValueNameParser
+ */
+public interface MetricNameParser {
+
+    /**
+     * @param name metric name, including the prefix of the reporter
+     * @return the base name and tags, or {@code null} to store the name as it is
+     */
+    TaggedName parse(String name);
+}
@@ -0,0 +1,175 @@
+package io.github.aparnachaudhary.metrics;
+
+import org.bson.Document;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Field names of the metric documents. {@link #FULL} is the default layout of the entities in
+ * {@link io.github.aparnachaudhary.metrics.model}. {@link #COMPACT} uses short field codes, so a timer document
+ * {@code { name, timestamp, count, m1Rate, ..., snapshot: { max, ..., p999 } }} is stored as
+ * {@code { n, t, c, m1, ..., s: { mx, ..., p999 } }}. Combined with a {@link MetricNameDictionary}, which replaces
+ * the metric names by integer ids, this considerably reduces the size of the documents on disk and on the wire.
+ * <p>
+ * Queries against compact documents translate field names with {@link #field(String)} and expand the documents read
+ * with {@link #decode(Document, MetricNameDictionary)}:
+ * <pre>
+ * MetricSchema schema = MetricSchema.COMPACT;
+ * for (Document document : database.getCollection("timer").find(Filters.gte(schema.field("timestamp"), from))) {
+ *     Document timer = schema.decode(document, names);
+ * }
+ * </pre>
+ *
+ * @author aparna
+ */
+public final class MetricSchema {
+
+    /**
+     * Full field names.
+     */
+    public static final MetricSchema FULL = new MetricSchema(new String[][] {});
+
+    /**
+     * Short field codes.
+     */
+    public static final MetricSchema COMPACT = new MetricSchema(new String[][] {
+            { "name", "n" }, { "timestamp", "t" }, { "value", "v" }, { "count", "c" }, { "m1Rate", "m1" },
+            { "m5Rate", "m5" }, { "m15Rate", "m15" }, { "meanRate", "mr" }, { "snapshot", "s" }, { "max", "mx" },
+            { "mean", "me" }, { "min", "mn" }, { "stdDev", "sd" }, { "median", "md" }, { "p75", "p75" },
+            { "p95", "p95" }, { "p98", "p98" }, { "p99", "p99" }, { "p999", "p999" }, { "samples", "sa" },
+            { "sum", "su" }, { "last", "l" }, { "histogram", "h" }, { "timestamps", "ts" }, { "delta", "d" },
+            { "rate", "r" }, { "reset", "rs" }, { "tags", "tg" } });
+
+    private final Map<String, String> codes = new HashMap<>();
+    private final Map<String, String> fullNames = new HashMap<>();
+    private final Set<String> reserved;
+
+    final String name;
+    final String timestamp;
+    final String value;
+    final String count;
+    final String m1Rate;
+    final String m5Rate;
+    final String m15Rate;
+    final String meanRate;
+    final String snapshot;
+    final String max;
+    final String mean;
+    final String min;
+    final String stdDev;
+    final String median;
+    final String p75;
+    final String p95;
+    final String p98;
+    final String p99;
+    final String p999;
+    final String samples;
+    final String sum;
+    final String last;
+    final String histogram;
+    final String timestamps;
+    final String delta;
+    final String rate;
+    final String reset;
+    final String tags;
+
+    private MetricSchema(String[][] mapping) {
+        for (String[] entry : mapping) {
+            codes.put(entry[0], entry[1]);
+            fullNames.put(entry[1], entry[0]);
+        }
+        this.name = field("name");
+        this.timestamp = field("timestamp");
+        this.value = field("value");
+        this.count = field("count");
+        this.m1Rate = field("m1Rate");
+        this.m5Rate = field("m5Rate");
+        this.m15Rate = field("m15Rate");
+        this.meanRate = field("meanRate");
+        this.snapshot = field("snapshot");
+        this.max = field("max");
+        this.mean = field("mean");
+        this.min = field("min");
+        this.stdDev = field("stdDev");
+        this.median = field("median");
+        this.p75 = field("p75");
+        this.p95 = field("p95");
+        this.p98 = field("p98");
+        this.p99 = field("p99");
+        this.p999 = field("p999");
+        this.samples = field("samples");
+        this.sum = field("sum");
+        this.last = field("last");
+        this.histogram = field("histogram");
+        this.timestamps = field("timestamps");
+        this.delta = field("delta");
+        this.rate = field("rate");
+        this.reset = field("reset");
+        this.tags = field("tags");
+        final Set<String> fields = new HashSet<>(MetricDocumentEncoder.RESERVED_FIELDS);
+        fields.addAll(codes.values());
+        this.reserved = Collections.unmodifiableSet(fields);
+    }
+
+    /**
+     * Translates a field name, e.g. {@code snapshot.p99} to {@code s.p99} in the compact schema. Names that are not
+     * metric fields, such as additional fields and tag keys, are returned as they are.
+     *
+     * @param fullName full field name, may be a dotted path
+     * @return the field name stored in this schema
+     */
+    public String field(String fullName) {
+        if (codes.isEmpty()) {
+            return fullName;
+        }
+        final int dot = fullName.indexOf('.');
+        if (dot >= 0) {
+            final String parent = fullName.substring(0, dot);
+            final String child = fullName.substring(dot + 1);
+            // tag keys are chosen by the application, not by the schema
+            return field(parent) + '.' + ("tags".equals(parent) ? child : field(child));
+        }
+        final String code = codes.get(fullName);
+        return code != null ? code : fullName;
+    }
+
+    /**
+     * Expands a document read from a metric collection to the full field names and, if the metric names are stored as
+     * dictionary ids, to the metric names.
+     *
+     * @param document document in this schema
+     * @param names    dictionary of metric names, or {@code null} if the names are stored as they are
+     * @return the document with the full field names
+     */
+    public Document decode(Document document, MetricNameDictionary names) {
+        final Document decoded = new Document();
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            final String key = fullName(entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Document && "snapshot".equals(key)) {
+                value = decode((Document) value, null);
+            } else if (names != null && "name".equals(key) && value instanceof Number) {
+                value = names.nameOf(((Number) value).intValue());
+            }
+            decoded.append(key, value);
+        }
+        return decoded;
+    }
+
+    /**
+     * @param key field of a document in this schema
+     * @return whether the field is written by the reporter, rather than an additional field
+     */
+    boolean isReserved(String key) {
+        return reserved.contains(key);
+    }
+
+    private String fullName(String key) {
+        final String fullName = fullNames.get(key);
+        return fullName != null ? fullName : key;
+    }
+}
@@ -0,0 +1,403 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A durable local buffer for documents that could not be written to MongoDB.
+ * <p>
+ * Documents are appended to memory-mapped segment files in the spool directory. Each record holds its length, the
+ * target collection name and the BSON document. A background thread periodically seals the active segment and replays
+ * sealed segments with unordered bulk writes, at most {@code replayRate} documents per second, deleting each segment
+ * once all its documents are acknowledged. Sealed segments are truncated to the records they hold. A segment whose
+ * replay is interrupted is replayed again from its start, so some of its documents may be written twice. The size limit
+ * counts the sealed segments by their truncated size plus the full size of the active segment; the oldest segments
+ * are discarded to stay within it. Segments left over from a previous run are replayed as well. Replays follow the
+ * {@link WritePolicy}, so nothing is replayed while its circuit breaker is open.
+ * <p>
+ * Sealed segments are read into heap buffers, so only the active segment is mapped. Java 8 cannot unmap a buffer
+ * explicitly; its mapping is released once the buffer is garbage collected. Truncating and deleting a file that is
+ * still mapped works on Linux and macOS, but fails on Windows, so the spool does not support Windows.
+ *
+ * @author aparna
+ */
+class MetricSpool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricSpool.class);
+
+    private static final String SEGMENT_PREFIX = "metrics-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final int REPLAY_BATCH_SIZE = 500;
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    private final File directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final int replayRate;
+    private final MetricCollections collections;
+    private final DocumentLayout layout;
+    private final WritePolicy writePolicy;
+    private final Deque<File> sealedSegments = new ArrayDeque<>();
+    private long sealedBytes;
+    private final ScheduledExecutorService replayExecutor;
+    private long nextSegment;
+    private File activeFile;
+    private FileChannel activeChannel;
+    private MappedByteBuffer activeBuffer;
+    private boolean unforced;
+    private long discarded;
+
+    MetricSpool(File directory, long segmentSize, long maxSize, int replayRate, long replayInterval, TimeUnit unit,
+            MetricCollections collections, DocumentLayout layout, WritePolicy writePolicy) throws IOException {
+        if (segmentSize < 1024 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentSize must be between 1 KiB and 2 GiB: " + segmentSize);
+        }
+        if (maxSize < segmentSize) {
+            throw new IllegalArgumentException("maxSize must not be less than segmentSize: " + maxSize);
+        }
+        if (replayRate < 1) {
+            throw new IllegalArgumentException("replayRate must be positive: " + replayRate);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.replayRate = replayRate;
+        this.collections = collections;
+        this.layout = layout;
+        this.writePolicy = writePolicy;
+        Files.createDirectories(directory.toPath());
+        recover();
+        this.replayExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "mongodb-reporter-spool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        replayExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, replayInterval, replayInterval, unit);
+    }
+
+    /**
+     * Appends documents for the given collection to the active segment. The records are in the page cache once this
+     * returns, so they survive the process crashing; {@link #force()} writes them to disk.
+     *
+     * @param collectionName target collection
+     * @param documents      documents to spool
+     */
+    synchronized void append(String collectionName, List<RawBsonDocument> documents) {
+        final byte[] name = collectionName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 255) {
+            throw new IllegalArgumentException("Collection name too long to spool: " + collectionName);
+        }
+        try {
+            for (RawBsonDocument document : documents) {
+                final ByteBuffer bson = document.getByteBuffer().asNIO();
+                final int recordSize = RECORD_HEADER_SIZE + name.length + bson.remaining();
+                if (recordSize > segmentSize) {
+                    LOGGER.warn("Unable to spool {} document of {} bytes, larger than a segment", collectionName,
+                            recordSize);
+                    continue;
+                }
+                if (activeBuffer == null || activeBuffer.remaining() < recordSize + 4) {
+                    roll();
+                }
+                final int start = activeBuffer.position();
+                activeBuffer.position(start + 4);
+                activeBuffer.put((byte) name.length);
+                activeBuffer.put(name);
+                activeBuffer.put(bson);
+                activeBuffer.putInt(start, recordSize);
+                unforced = true;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to spool {} {} documents", documents.size(), collectionName, e);
+        }
+    }
+
+    /**
+     * Writes the records appended since the last call to disk, once per report cycle rather than per append, as
+     * documents are spooled one at a time during an outage.
+     */
+    synchronized void force() {
+        if (unforced && activeBuffer != null) {
+            activeBuffer.force();
+        }
+        unforced = false;
+    }
+
+    /**
+     * @return number of segments waiting to be replayed, including the active one
+     */
+    synchronized int segments() {
+        return sealedSegments.size() + (activeBuffer != null && activeBuffer.position() > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return number of documents discarded because the spool reached its size limit
+     */
+    synchronized long discarded() {
+        return discarded;
+    }
+
+    /**
+     * Stops replaying and flushes the active segment. Spooled documents are replayed by the next reporter using the
+     * same directory.
+     */
+    void close() {
+        replayExecutor.shutdownNow();
+        synchronized (this) {
+            seal();
+        }
+    }
+
+    /**
+     * Replays all sealed segments, oldest first, until one of them cannot be written.
+     */
+    void replay() {
+        synchronized (this) {
+            if (sealedSegments.isEmpty()) {
+                seal();
+            }
+        }
+        File segment;
+        while ((segment = oldestSegment()) != null) {
+            try {
+                if (!replay(segment)) {
+                    return;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read spool segment {}, discarding it", segment, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            synchronized (this) {
+                // the segment is gone already if the spool filled up and discarded it meanwhile
+                if (sealedSegments.remove(segment)) {
+                    sealedBytes -= segment.length();
+                    delete(segment);
+                }
+            }
+        }
+    }
+
+    private synchronized File oldestSegment() {
+        return sealedSegments.peekFirst();
+    }
+
+    private boolean replay(File segment) throws IOException, InterruptedException {
+        final Map<String, List<WriteModel<RawBsonDocument>>> batches = new LinkedHashMap<>();
+        final long nanosPerDocument = TimeUnit.SECONDS.toNanos(1) / replayRate;
+        long nextWrite = System.nanoTime();
+        final ByteBuffer buffer = read(segment);
+        int replayed = 0;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            final int start = buffer.position();
+            final int recordSize = buffer.getInt();
+            if (recordSize < RECORD_HEADER_SIZE || recordSize > buffer.remaining() + 4) {
+                break;
+            }
+            final byte[] name = new byte[buffer.get() & 0xFF];
+            buffer.get(name);
+            final byte[] bson = new byte[recordSize - RECORD_HEADER_SIZE - name.length];
+            buffer.get(bson);
+            buffer.position(start + recordSize);
+
+            final String collectionName = new String(name, StandardCharsets.UTF_8);
+            List<WriteModel<RawBsonDocument>> batch = batches.get(collectionName);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(collectionName, batch);
+            }
+            batch.add(layout.toWriteModel(collectionName, new RawBsonDocument(bson)));
+            if (batch.size() >= REPLAY_BATCH_SIZE) {
+                nextWrite = pace(nextWrite, batch.size(), nanosPerDocument);
+                if (!write(collectionName, batch)) {
+                    return false;
+                }
+                replayed += REPLAY_BATCH_SIZE;
+            }
+        }
+        for (Map.Entry<String, List<WriteModel<RawBsonDocument>>> entry : batches.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                replayed += entry.getValue().size();
+                nextWrite = pace(nextWrite, entry.getValue().size(), nanosPerDocument);
+                if (!write(entry.getKey(), entry.getValue())) {
+                    return false;
+                }
+            }
+        }
+        LOGGER.info("Replayed {} spooled metric documents from {}", replayed, segment.getName());
+        return true;
+    }
+
+    private static long pace(long nextWrite, int documents, long nanosPerDocument) throws InterruptedException {
+        final long wait = nextWrite - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return Math.max(nextWrite, System.nanoTime()) + documents * nanosPerDocument;
+    }
+
+    private boolean write(final String collectionName, final List<WriteModel<RawBsonDocument>> batch) {
+        try {
+            writePolicy.execute(new WritePolicy.Write<BulkWriteResult>() {
+                @Override
+                public BulkWriteResult execute() {
+                    return collections.get(collectionName).bulkWrite(batch, UNORDERED);
+                }
+            });
+        } catch (MongoBulkWriteException e) {
+            LOGGER.warn("Discarding {} spooled {} documents rejected by the server", e.getWriteErrors().size(),
+                    collectionName);
+        } catch (MongoException e) {
+            LOGGER.debug("Unable to replay spooled {} documents, retrying later", collectionName, e);
+            return false;
+        }
+        batch.clear();
+        return true;
+    }
+
+    private void recover() {
+        final File[] existing = directory.listFiles();
+        if (existing == null) {
+            return;
+        }
+        Arrays.sort(existing);
+        for (File file : existing) {
+            final String fileName = file.getName();
+            if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    final long sequence = Long.parseLong(
+                            fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+                    nextSegment = Math.max(nextSegment, sequence + 1);
+                    sealedSegments.addLast(file);
+                    sealedBytes += file.length();
+                } catch (NumberFormatException e) {
+                    LOGGER.debug("Ignoring unexpected file {} in spool directory", file);
+                }
+            }
+        }
+        if (!sealedSegments.isEmpty()) {
+            LOGGER.info("Found {} spooled metric segments in {}", sealedSegments.size(), directory);
+        }
+    }
+
+    private void roll() throws IOException {
+        seal();
+        while (!sealedSegments.isEmpty() && sealedBytes + segmentSize > maxSize) {
+            final File oldest = sealedSegments.pollFirst();
+            sealedBytes -= oldest.length();
+            discarded += countRecords(oldest);
+            LOGGER.warn("Spool in {} is full, discarding segment {}", directory, oldest.getName());
+            delete(oldest);
+        }
+        final Path path = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX))
+                .toPath();
+        activeFile = path.toFile();
+        activeChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        activeBuffer = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        activeBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void seal() {
+        if (activeBuffer == null) {
+            return;
+        }
+        final int used = activeBuffer.position();
+        activeBuffer.force();
+        unforced = false;
+        try {
+            activeChannel.truncate(used);
+            activeChannel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close spool segment {}", activeFile, e);
+        }
+        if (used == 0) {
+            delete(activeFile);
+        } else {
+            sealedSegments.addLast(activeFile);
+            sealedBytes += used;
+        }
+        activeFile = null;
+        activeChannel = null;
+        activeBuffer = null;
+    }
+
+    private static long countRecords(File segment) {
+        long records = 0;
+        try {
+            final ByteBuffer buffer = read(segment);
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final int recordSize = buffer.getInt();
+                if (recordSize < RECORD_HEADER_SIZE || recordSize > buffer.remaining() + 4) {
+                    break;
+                }
+                buffer.position(buffer.position() + recordSize - 4);
+                records++;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Unable to read spool segment {}", segment, e);
+        }
+        return records;
+    }
+
+    /**
+     * Reads a sealed segment into a heap buffer rather than mapping it, as a mapped file cannot be unmapped before it
+     * is deleted.
+     */
+    private static ByteBuffer read(File segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the buffer is full or the file ends
+            }
+            buffer.flip();
+            return buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static void delete(File segment) {
+        try {
+            Files.deleteIfExists(segment.toPath());
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete spool segment {}", segment, e);
+        }
+    }
+}
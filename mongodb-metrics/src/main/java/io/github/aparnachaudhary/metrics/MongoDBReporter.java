@@ -6,37 +6,51 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCredential;
 import com.mongodb.MongoException;
 import com.mongodb.ServerAddress;
-import com.mongodb.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoDatabase;
-import io.github.aparnachaudhary.metrics.model.BaseEntity;
-import io.github.aparnachaudhary.metrics.model.CounterEntity;
-import io.github.aparnachaudhary.metrics.model.GaugeEntity;
-import io.github.aparnachaudhary.metrics.model.HistogramEntity;
-import io.github.aparnachaudhary.metrics.model.MeteredEntity;
-import io.github.aparnachaudhary.metrics.model.TimerEntity;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-
-import static com.codahale.metrics.MetricRegistry.name;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * A reporter to publish metric values to a MongoDB server.
@@ -72,6 +86,47 @@ public class MongoDBReporter extends ScheduledReporter {
         private MongoClientOptions mongoClientOptions;
         private String databaseName = "metricstore";
         private Map<String, Object> additionalFields;
+        private int batchSize;
+        private int queueCapacity;
+        private int writerThreads = 1;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        private File spoolDirectory;
+        private long spoolSegmentSize = 16 * 1024 * 1024;
+        private long maxSpoolSize = 1024 * 1024 * 1024;
+        private int spoolReplayRate = 1000;
+        private int heartbeatIntervals;
+        private boolean deltas;
+        private int maxNamesPerPrefix;
+        private CardinalityPolicy cardinalityPolicy;
+        private long bucketMillis;
+        private boolean ensureIndexes;
+        private Long retentionSeconds;
+        private Long rollupRetentionSeconds;
+        private List<String> tagIndexKeys = Collections.emptyList();
+        private MetricNameParser nameParser;
+        private final List<Long> rollupWindows = new ArrayList<>();
+        private final Map<MetricFilter, Long> tiers = new LinkedHashMap<>();
+        private boolean distributions;
+        private MongoDatabase mongoDatabase;
+        private MongoClient mongoClient;
+        private boolean shareMongoClient;
+        private MetricRegistry selfMetricsRegistry;
+        private String selfMetricsName;
+        private ExecutorService gaugeExecutor;
+        private long gaugeTimeoutNanos;
+        private ExecutorService collectionExecutor;
+        private ForkJoinPool snapshotPool;
+        private int snapshotChunkSize;
+        private boolean idempotentWrites;
+        private MetricSchema schema = MetricSchema.FULL;
+        private boolean nameDictionary;
+        private final Map<String, Set<MetricAttribute>> disabledAttributes = new HashMap<>();
+        private int maxRetries;
+        private long initialBackoffMillis;
+        private long maxBackoffMillis;
+        private int failureThreshold;
+        private long openMillis;
+        private boolean lazyConnection;
 
         private Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -182,6 +237,45 @@ public class MongoDBReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Write to an existing database handle instead of connecting with {@link #serverAddresses(ServerAddress[])},
+         * {@link #mongoCredentials(MongoCredential[])} and {@link #mongoClientOptions(MongoClientOptions)}. The
+         * database name configured with {@link #withDatabaseName(String)} is ignored.
+         *
+         * @param mongoDatabase database to write the metrics data to
+         * @return {@code this}
+         */
+        public Builder withDatabase(MongoDatabase mongoDatabase) {
+            this.mongoDatabase = mongoDatabase;
+            return this;
+        }
+
+        /**
+         * Connect with an existing client instead of creating one from {@link #serverAddresses(ServerAddress[])},
+         * {@link #mongoCredentials(MongoCredential[])} and {@link #mongoClientOptions(MongoClientOptions)}. The client
+         * is owned by the caller and not closed when the reporter is stopped.
+         *
+         * @param mongoClient client to write the metrics data with
+         * @return {@code this}
+         */
+        public Builder withMongoClient(MongoClient mongoClient) {
+            this.mongoClient = mongoClient;
+            return this;
+        }
+
+        /**
+         * Share one {@link MongoClient}, and so one connection pool, among all reporters connecting with equal server
+         * addresses, credentials and options. The client is closed when the last reporter using it is stopped. By
+         * default every reporter creates its own client and closes it when it is stopped.
+         *
+         * @param shareMongoClient whether to share the client
+         * @return {@code this}
+         */
+        public Builder shareMongoClient(boolean shareMongoClient) {
+            this.shareMongoClient = shareMongoClient;
+            return this;
+        }
+
         /**
          * Additional fields to be included for each metric
          *
@@ -193,50 +287,935 @@ public class MongoDBReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Write the documents of a report cycle with unordered bulk writes of at most {@code batchSize} documents per
+         * collection instead of one insert per metric. Defaults to 0, which disables batching.
+         *
+         * @param batchSize maximum number of documents per bulk write
+         * @return {@code this}
+         */
+        public Builder withBatchSize(int batchSize) {
+            if (batchSize < 0) {
+                throw new IllegalArgumentException("batchSize must not be negative: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Write documents asynchronously. {@link #report()} only builds the documents and puts them on a bounded queue
+         * which writer threads drain into MongoDB. Defaults to 0, which writes on the reporting thread.
+         *
+         * @param queueCapacity maximum number of documents waiting to be written
+         * @return {@code this}
+         */
+        public Builder withAsyncWrites(int queueCapacity) {
+            if (queueCapacity < 0) {
+                throw new IllegalArgumentException("queueCapacity must not be negative: " + queueCapacity);
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Number of threads writing queued documents when asynchronous writes are enabled. Defaults to 1.
+         *
+         * @param writerThreads number of writer threads
+         * @return {@code this}
+         */
+        public Builder withWriterThreads(int writerThreads) {
+            if (writerThreads < 1) {
+                throw new IllegalArgumentException("writerThreads must be positive: " + writerThreads);
+            }
+            this.writerThreads = writerThreads;
+            return this;
+        }
+
+        /**
+         * What to do when the asynchronous write queue is full. Defaults to {@link OverflowPolicy#BLOCK}.
+         *
+         * @param overflowPolicy overflow policy
+         * @return {@code this}
+         */
+        public Builder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Spool documents that cannot be written to MongoDB, or are dropped from a full write queue, to memory-mapped
+         * segment files in the given directory. A background thread replays them once MongoDB is reachable again.
+         * Disabled by default.
+         *
+         * @param spoolDirectory directory for the spool segments
+         * @return {@code this}
+         */
+        public Builder withSpool(File spoolDirectory) {
+            this.spoolDirectory = spoolDirectory;
+            return this;
+        }
+
+        /**
+         * Size limits of the spool. Defaults to segments of 16 MiB and at most 1 GiB in total, counting the sealed
+         * segments by their size on disk and the active segment by its full size; once the limit is reached the oldest
+         * segments are discarded.
+         *
+         * @param segmentSize size of a single segment file in bytes
+         * @param maxSize     maximum disk space used by the spool in bytes
+         * @return {@code this}
+         */
+        public Builder withSpoolSize(long segmentSize, long maxSize) {
+            if (segmentSize > maxSize) {
+                throw new IllegalArgumentException("segmentSize must not exceed maxSize");
+            }
+            this.spoolSegmentSize = segmentSize;
+            this.maxSpoolSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Maximum number of spooled documents replayed per second. Defaults to 1000.
+         *
+         * @param documentsPerSecond replay rate
+         * @return {@code this}
+         */
+        public Builder withSpoolReplayRate(int documentsPerSecond) {
+            this.spoolReplayRate = documentsPerSecond;
+            return this;
+        }
+
+        /**
+         * Only write counters, meters and gauges whose value changed since it was last written. An unchanged value is
+         * still written every {@code heartbeatIntervals} report cycles. Disabled by default.
+         *
+         * @param heartbeatIntervals number of report cycles after which an unchanged value is written anyway
+         * @return {@code this}
+         */
+        public Builder reportChangesOnly(int heartbeatIntervals) {
+            if (heartbeatIntervals < 1) {
+                throw new IllegalArgumentException("heartbeatIntervals must be positive: " + heartbeatIntervals);
+            }
+            this.heartbeatIntervals = heartbeatIntervals;
+            return this;
+        }
+
+        /**
+         * Also write the change of counters and meters since the previous report cycle as {@code delta}, and the
+         * change per second as {@code rate}, computed from the {@link Clock} readings of the two cycles. The first
+         * document of a metric carries its whole count as delta and no rate, so {@code $sum} over the deltas gives the
+         * correct total even across application restarts. A meter whose count dropped was reset; its document gets
+         * {@code reset: true} and the new count as delta. Counters may be decremented, so a counter whose count dropped
+         * gets a negative delta and rate, never a reset. Disabled by default.
+         *
+         * @param deltas whether to write deltas and rates
+         * @return {@code this}
+         */
+        public Builder withDeltas(boolean deltas) {
+            this.deltas = deltas;
+            return this;
+        }
+
+        /**
+         * Limit the number of distinct metric names written per prefix, the part of the name before the first dot.
+         * Unlimited by default.
+         *
+         * @param maxNamesPerPrefix maximum number of distinct names written per prefix
+         * @param policy            what to do with metrics over the limit
+         * @return {@code this}
+         */
+        public Builder withCardinalityLimit(int maxNamesPerPrefix, CardinalityPolicy policy) {
+            if (maxNamesPerPrefix < 1) {
+                throw new IllegalArgumentException("maxNamesPerPrefix must be positive: " + maxNamesPerPrefix);
+            }
+            this.maxNamesPerPrefix = maxNamesPerPrefix;
+            this.cardinalityPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Store one document per metric and time bucket instead of one document per metric and report cycle. Each
+         * sample is pushed onto parallel arrays of the bucket document; the {@code timestamp} of a bucket document is
+         * the start of the bucket. Disabled by default.
+         *
+         * @param bucketDuration duration of a bucket, e.g. 1 hour
+         * @param unit           unit of {@code bucketDuration}
+         * @return {@code this}
+         */
+        public Builder withTimeBuckets(long bucketDuration, TimeUnit unit) {
+            if (bucketDuration < 1) {
+                throw new IllegalArgumentException("bucketDuration must be positive: " + bucketDuration);
+            }
+            this.bucketMillis = unit.toMillis(bucketDuration);
+            return this;
+        }
+
+        /**
+         * Create a compound {@code {name: 1, timestamp: 1}} index on each metric collection when the reporter is
+         * started. The indexes are built in the background and do not delay the first report. Disabled by default.
+         *
+         * @param ensureIndexes whether to create the indexes
+         * @return {@code this}
+         */
+        public Builder ensureIndexes(boolean ensureIndexes) {
+            this.ensureIndexes = ensureIndexes;
+            return this;
+        }
+
+        /**
+         * Expire metric documents once they are older than the retention period using a TTL index on
+         * {@code timestamp}. An existing TTL index with a different retention is updated. Applies to the raw metric
+         * collections only, see {@link #withRollupRetention(long, TimeUnit)}. Implies {@link #ensureIndexes(boolean)}.
+         * Disabled by default.
+         *
+         * @param retention retention period, at least one second
+         * @param unit      unit of {@code retention}
+         * @return {@code this}
+         */
+        public Builder withRetention(long retention, TimeUnit unit) {
+            final long seconds = unit.toSeconds(retention);
+            if (seconds < 1) {
+                throw new IllegalArgumentException("retention must be at least one second");
+            }
+            this.retentionSeconds = seconds;
+            this.ensureIndexes = true;
+            return this;
+        }
+
+        /**
+         * Expire rollup documents once they are older than the retention period using a TTL index on
+         * {@code timestamp}, like {@link #withRetention(long, TimeUnit)} does for the raw metric collections. Rollups
+         * usually outlive the raw samples they summarize, so they are kept forever by default.
+         *
+         * @param retention retention period, at least one second
+         * @param unit      unit of {@code retention}
+         * @return {@code this}
+         * @see #withRollup(long, TimeUnit)
+         */
+        public Builder withRollupRetention(long retention, TimeUnit unit) {
+            final long seconds = unit.toSeconds(retention);
+            if (seconds < 1) {
+                throw new IllegalArgumentException("retention must be at least one second");
+            }
+            this.rollupRetentionSeconds = seconds;
+            this.ensureIndexes = true;
+            return this;
+        }
+
+        /**
+         * Create a compound {@code {name: 1, tags.<key>: 1, ..., timestamp: 1}} index on each metric collection when
+         * the reporter is started, for queries filtering on the given tags of a metric. Use together with
+         * {@link #withNameParser(MetricNameParser)}. Implies {@link #ensureIndexes(boolean)}.
+         *
+         * @param tagKeys tag keys in index order, e.g. {@code "status", "uri"}
+         * @return {@code this}
+         */
+        public Builder withTagIndex(String... tagKeys) {
+            if (tagKeys.length == 0) {
+                throw new IllegalArgumentException("tagKeys must not be empty");
+            }
+            this.tagIndexKeys = Arrays.asList(tagKeys);
+            this.ensureIndexes = true;
+            return this;
+        }
+
+        /**
+         * Split the metric names into a base name, stored as {@code name}, and tags, stored as the {@code tags}
+         * subdocument, e.g. with {@link KeyValueNameParser} {@code http.server.requests.status=500.uri=/api/x} into
+         * {@code { name: "http.server.requests", tags: { status: "500", uri: "/api/x" } }}. Queries can then filter on
+         * tags with an index, see {@link #withTagIndex(String...)}, instead of matching the name with a regular
+         * expression. Each name is parsed once and cached until the metric is removed from the registry. Disabled by
+         * default.
+         *
+         * @param nameParser parser of the prefixed metric names
+         * @return {@code this}
+         */
+        public Builder withNameParser(MetricNameParser nameParser) {
+            this.nameParser = nameParser;
+            return this;
+        }
+
+        /**
+         * Aggregate the samples of each metric over windows of the given length and write one document per metric and
+         * window to a rollup collection named after the metric type and window, e.g. {@code timer_1m} or
+         * {@code counter_1h}. Counters, meters and numeric gauges are aggregated into min, max, sum, samples and last
+         * value; histograms and timers into the percentiles and the encoded distribution of their snapshots. May be
+         * called several times, e.g. for 1 minute and 1 hour windows. Windows still open are written when the reporter
+         * is stopped, unless idempotent writes are enabled.
+         *
+         * @param window length of the window, at least one report period
+         * @param unit   unit of {@code window}
+         * @return {@code this}
+         */
+        public Builder withRollup(long window, TimeUnit unit) {
+            final long millis = unit.toMillis(window);
+            if (millis < 1) {
+                throw new IllegalArgumentException("window must be at least one millisecond");
+            }
+            if (!rollupWindows.contains(millis)) {
+                rollupWindows.add(millis);
+            }
+            return this;
+        }
+
+        /**
+         * Store a mergeable {@link LogHistogram} of the snapshot values in the {@code histogram} field of histogram
+         * documents and the {@code snapshot.histogram} field of timer documents. Unlike the pre-computed percentiles,
+         * these distributions can be merged across nodes and time ranges with {@link DistributionQuery}. Disabled by
+         * default.
+         *
+         * @param distributions whether to store the distributions
+         * @return {@code this}
+         */
+        public Builder withDistributions(boolean distributions) {
+            this.distributions = distributions;
+            return this;
+        }
+
+        /**
+         * Register metrics about the reporter itself under {@code mongodb-reporter.*}: timers of the report cycle, of
+         * reading and encoding the metrics and of the writes per collection, meters of the documents written and
+         * failed and of the bytes sent, and gauges of the write queue, spool and cardinality limit when enabled. The
+         * registry may be the one being reported. Only one reporter per registry may use these names, see
+         * {@link #withSelfMetrics(MetricRegistry, String)}. Disabled by default.
+         *
+         * @param registry registry for the reporter's own metrics
+         * @return {@code this}
+         */
+        public Builder withSelfMetrics(MetricRegistry registry) {
+            return withSelfMetrics(registry, null);
+        }
+
+        /**
+         * Register metrics about the reporter itself like {@link #withSelfMetrics(MetricRegistry)}, under
+         * {@code mongodb-reporter.<reporterName>.*}, so several reporters can register their metrics in one registry.
+         * Building a reporter whose name is already used in the registry fails; stopping a reporter removes only its
+         * own metrics.
+         *
+         * @param registry     registry for the reporter's own metrics
+         * @param reporterName name of the reporter, unique among the reporters using the registry
+         * @return {@code this}
+         */
+        public Builder withSelfMetrics(MetricRegistry registry, String reporterName) {
+            this.selfMetricsRegistry = registry;
+            this.selfMetricsName = reporterName;
+            return this;
+        }
+
+        /**
+         * Evaluate the gauges concurrently on the given executor, skipping gauges that run longer than the timeout.
+         * The executor is not shut down by the reporter.
+         *
+         * @param executor executor evaluating the gauges
+         * @param timeout  time each gauge may run
+         * @param unit     unit of {@code timeout}
+         * @return {@code this}
+         */
+        public Builder withGaugeExecutor(ExecutorService executor, long timeout, TimeUnit unit) {
+            if (timeout < 1) {
+                throw new IllegalArgumentException("timeout must be positive: " + timeout);
+            }
+            this.gaugeExecutor = executor;
+            this.gaugeTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Write the metric collections of a report cycle concurrently on the given executor. The executor is not shut
+         * down by the reporter.
+         *
+         * @param executor executor writing the collections
+         * @return {@code this}
+         */
+        public Builder withCollectionExecutor(ExecutorService executor) {
+            this.collectionExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Build the snapshots and documents of histograms and timers in parallel on the given fork-join pool. The pool
+         * is not shut down by the reporter.
+         *
+         * @param pool      pool building the snapshots, e.g. {@link ForkJoinPool#commonPool()}
+         * @param chunkSize number of metrics encoded by one task
+         * @return {@code this}
+         */
+        public Builder withParallelSnapshots(ForkJoinPool pool, int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+            }
+            this.snapshotPool = pool;
+            this.snapshotChunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Make writes safe to repeat. The timestamps of a report cycle are aligned to the period passed to
+         * {@link #start(long, TimeUnit)}, using the configured {@link Clock}, and every document gets the
+         * deterministic {@code _id} {@code <name>@<timestamp>}. A document that is written again, by a retry or a spool
+         * replay, is rejected by MongoDB as duplicate and skipped, so readers need no deduplication. Disabled by
+         * default.
+         *
+         * @param idempotentWrites whether to align timestamps and derive the {@code _id}
+         * @return {@code this}
+         */
+        public Builder withIdempotentWrites(boolean idempotentWrites) {
+            this.idempotentWrites = idempotentWrites;
+            return this;
+        }
+
+        /**
+         * Store the documents with short field codes, e.g. {@code c} instead of {@code count} and {@code s.p99} instead
+         * of {@code snapshot.p99}. Queries translate field names and expand the documents with {@link MetricSchema}.
+         * Disabled by default.
+         *
+         * @param compactSchema whether to use {@link MetricSchema#COMPACT}
+         * @return {@code this}
+         */
+        public Builder withCompactSchema(boolean compactSchema) {
+            this.schema = compactSchema ? MetricSchema.COMPACT : MetricSchema.FULL;
+            return this;
+        }
+
+        /**
+         * Store integer ids instead of metric names, mapped to the names in the
+         * {@value MetricNameDictionary#COLLECTION_NAME} collection. Ids are looked up once per metric name. With a lazy
+         * connection no metrics are reported or spooled until the reporter is connected, as the ids are unknown until
+         * then; if the dictionary cannot be reached later on, the name is stored instead. Queries resolve the ids with
+         * {@link MetricNameDictionary}. Disabled by default.
+         *
+         * @param nameDictionary whether to store the ids of the metric names
+         * @return {@code this}
+         */
+        public Builder withNameDictionary(boolean nameDictionary) {
+            this.nameDictionary = nameDictionary;
+            return this;
+        }
+
+        /**
+         * Create the {@link MongoClient} on a background thread after {@link #start(long, TimeUnit)} instead of in
+         * {@link #build()}, so a slow or unreachable MongoDB does not delay the application start. The reporter is
+         * {@link MongoDBReporter#isReady() ready} once MongoDB has answered a ping; collection indexes are ensured
+         * afterwards. Until then documents are spooled, when a spool is configured, and dropped otherwise. Has no effect
+         * with {@link #withDatabase(MongoDatabase)} or {@link #withMongoClient(MongoClient)}. Disabled by default.
+         *
+         * @param lazyConnection whether to connect in the background
+         * @return {@code this}
+         */
+        public Builder withLazyConnection(boolean lazyConnection) {
+            this.lazyConnection = lazyConnection;
+            return this;
+        }
+
+        /**
+         * Retry writes failing because MongoDB is unreachable or has no primary, e.g. during a primary election.
+         * Between attempts the reporter waits a backoff doubling from {@code initialBackoff} up to {@code maxBackoff},
+         * randomized by up to half to spread the retries of many reporters. Other errors are not retried. Defaults to
+         * no retries.
+         *
+         * @param maxRetries     retries per write
+         * @param initialBackoff wait before the first retry
+         * @param maxBackoff     maximum wait between retries
+         * @param unit           unit of the backoffs
+         * @return {@code this}
+         */
+        public Builder withRetries(int maxRetries, long initialBackoff, long maxBackoff, TimeUnit unit) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+            }
+            this.maxRetries = maxRetries;
+            this.initialBackoffMillis = unit.toMillis(initialBackoff);
+            this.maxBackoffMillis = unit.toMillis(maxBackoff);
+            return this;
+        }
+
+        /**
+         * Pause writing after {@code failureThreshold} consecutive writes have failed, even with retries. While paused,
+         * documents are spooled, when a spool is configured, or dropped, without waiting for the driver's timeouts.
+         * After {@code openDuration} one trial write decides whether to resume. Disabled by default.
+         *
+         * @param failureThreshold consecutive failed writes pausing the writes
+         * @param openDuration     length of the pause
+         * @param unit             unit of {@code openDuration}
+         * @return {@code this}
+         */
+        public Builder withCircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+            if (failureThreshold < 1) {
+                throw new IllegalArgumentException("failureThreshold must be positive: " + failureThreshold);
+            }
+            this.failureThreshold = failureThreshold;
+            this.openMillis = unit.toMillis(openDuration);
+            return this;
+        }
+
+        /**
+         * Neither compute nor store the given attributes of histograms, meters and timers, e.g. all percentiles but
+         * {@link MetricAttribute#P50} and {@link MetricAttribute#P99}. If no snapshot attribute of a histogram or timer
+         * is left, and neither distributions nor rollups need it, the snapshot is not taken at all. By default all
+         * attributes are reported.
+         *
+         * @param attributes attributes to leave out
+         * @return {@code this}
+         */
+        public Builder disabledMetricAttributes(Set<MetricAttribute> attributes) {
+            for (String collectionName : Arrays.asList(MetricCollections.HISTOGRAM, MetricCollections.METERED,
+                    MetricCollections.TIMER)) {
+                disabledAttributes.put(collectionName, attributes);
+            }
+            return this;
+        }
+
+        /**
+         * Neither compute nor store the given attributes of one metric type, replacing the attributes disabled for
+         * that type so far.
+         *
+         * @param type       {@link Histogram}, {@link Meter} or {@link Timer}
+         * @param attributes attributes to leave out
+         * @return {@code this}
+         * @see #disabledMetricAttributes(Set)
+         */
+        public Builder disabledMetricAttributes(Class<? extends Metric> type, Set<MetricAttribute> attributes) {
+            if (Timer.class.isAssignableFrom(type)) {
+                disabledAttributes.put(MetricCollections.TIMER, attributes);
+            } else if (Metered.class.isAssignableFrom(type)) {
+                disabledAttributes.put(MetricCollections.METERED, attributes);
+            } else if (Histogram.class.isAssignableFrom(type)) {
+                disabledAttributes.put(MetricCollections.HISTOGRAM, attributes);
+            } else {
+                throw new IllegalArgumentException("No attributes to disable for " + type.getName());
+            }
+            return this;
+        }
+
+        /**
+         * Report the metrics matching the filter at a longer interval than the period passed to
+         * {@link #start(long, TimeUnit)}, e.g. JVM attributes every 5 minutes while request timers are reported every
+         * 10 seconds. All tiers run on the reporter's single scheduler: each report cycle reads and writes only the
+         * metrics that are due, so slow-changing metrics cost no snapshot or write work in between. A metric belongs to
+         * the first tier whose filter matches it; metrics matching no tier are reported every period. The interval
+         * should be a multiple of the period.
+         *
+         * @param filter   metrics of the tier
+         * @param interval reporting interval of the tier
+         * @param unit     unit of {@code interval}
+         * @return {@code this}
+         */
+        public Builder withTier(MetricFilter filter, long interval, TimeUnit unit) {
+            final long millis = unit.toMillis(interval);
+            if (millis < 1) {
+                throw new IllegalArgumentException("interval must be at least one millisecond");
+            }
+            tiers.put(filter, millis);
+            return this;
+        }
+
+        /**
+         * Report the metrics whose name, without prefix, contains a match of the pattern at the given interval.
+         *
+         * @param pattern  pattern of the metric names of the tier
+         * @param interval reporting interval of the tier
+         * @param unit     unit of {@code interval}
+         * @return {@code this}
+         * @see #withTier(MetricFilter, long, TimeUnit)
+         */
+        public Builder withTier(final Pattern pattern, long interval, TimeUnit unit) {
+            return withTier(new MetricFilter() {
+                @Override
+                public boolean matches(String name, Metric metric) {
+                    return pattern.matcher(name).find();
+                }
+            }, interval, unit);
+        }
+
         /**
          * Builds a {@link MongoDBReporter} with the given properties.
          *
          * @return a {@link MongoDBReporter}
+         * @throws IllegalStateException if the properties cannot be combined
          */
         public MongoDBReporter build() {
-            return new MongoDBReporter(registry,
-                    databaseName,
-                    serverAddresses,
-                    mongoCredentials,
-                    mongoClientOptions,
-                    clock,
-                    prefix,
-                    rateUnit,
-                    durationUnit,
-                    filter,
-                    additionalFields);
+            if (idempotentWrites && maxNamesPerPrefix > 0 && cardinalityPolicy == CardinalityPolicy.OVERFLOW) {
+                throw new IllegalStateException(
+                        "Idempotent writes would keep one metric per overflow bucket, use CardinalityPolicy.DROP");
+            }
+            return new MongoDBReporter(this);
         }
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MongoDBReporter.class);
 
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private static final long SPOOL_REPLAY_INTERVAL_SECONDS = 10;
+
+    private static final long CONNECT_RETRY_SECONDS = 5;
+
+    private static final Document PING = new Document("ping", 1);
+
     private final ServerAddress[] serverAddresses;
     private final MongoCredential[] mongoCredentials;
     private final MongoClientOptions mongoClientOptions;
     private final String databaseName;
     private final Clock clock;
     private final String prefix;
-    private final MongoDatabase mongoDatabase;
+    private final Object connectionLock = new Object();
+    private final boolean lazyConnection;
+    private final boolean shareMongoClient;
+    private Thread connector;
+    private MongoClient ownMongoClient;
+    private SharedMongoClient sharedMongoClient;
+    private final AtomicBoolean stopped = new AtomicBoolean();
     private Map<String, Object> additionalFields;
+    private final MetricRegistry registry;
+    private final MetricFilter filter;
+    private final ReportingTiers tiers;
+    private final MetricCollections collections;
+    private final MetricNameCache names;
+    private final CardinalityLimiter cardinality;
+    private final ChangeTracker changes;
+    private final DeltaTracker deltas;
+    private final MetricDocumentEncoder encoder;
+    private final DocumentLayout layout;
+    private final MetricSpool spool;
+    private final BatchWriter batchWriter;
+    private final AsyncWriter asyncWriter;
+    private final RollupEngine rollups;
+    private final RollupEngine.Sink rollupSink = new RollupEngine.Sink() {
+        @Override
+        public void store(String collectionName, String name, RawBsonDocument document) {
+            storeInMongo(collectionName, name, document);
+        }
+    };
+    private final IndexManager indexManager;
+    private final IndexManager rollupIndexManager;
+    private final ReporterMetrics metrics;
+    private final GaugeEvaluator gaugeEvaluator;
+    private final WritePolicy writePolicy;
+    private final boolean histogramSnapshots;
+    private final boolean timerSnapshots;
+    private long reportedDrops;
+    private long reportedRejections;
+    private final boolean idempotentWrites;
+    private final boolean nameDictionary;
+    private boolean warnedNameIds;
+    private volatile long periodMillis = 1;
+    private long lastTick = Long.MIN_VALUE;
+    private final AtomicLong snapshotNanos = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final ExecutorService collectionExecutor;
+    private final Map<String, BatchWriter> collectionWriters;
+    private final ParallelEncoder parallelEncoder;
+    private volatile ReportOutcome lastOutcome;
 
     public MongoDBReporter(MetricRegistry registry, String databaseName, ServerAddress[] serverAddresses,
             MongoCredential[] mongoCredentials, MongoClientOptions mongoClientOptions,
             Clock clock, String prefix, TimeUnit rateUnit, TimeUnit durationUnit,
             MetricFilter filter, Map<String, Object> additionalFields) {
-        super(registry, "mongodb-reporter", filter, rateUnit, durationUnit);
-        this.databaseName = databaseName;
-        this.serverAddresses = serverAddresses;
-        this.mongoCredentials = mongoCredentials;
-        this.mongoClientOptions = mongoClientOptions;
-        this.clock = clock;
-        this.prefix = prefix;
-        this.additionalFields = additionalFields;
-        this.mongoDatabase = getDB();
+        this(forRegistry(registry)
+                .withDatabaseName(databaseName)
+                .serverAddresses(serverAddresses)
+                .mongoCredentials(mongoCredentials)
+                .mongoClientOptions(mongoClientOptions)
+                .withClock(clock)
+                .prefixedWith(prefix)
+                .convertRatesTo(rateUnit)
+                .convertDurationsTo(durationUnit)
+                .filter(filter)
+                .additionalFields(additionalFields));
+    }
+
+    private MongoDBReporter(Builder builder) {
+        super(builder.registry, "mongodb-reporter", builder.filter, builder.rateUnit, builder.durationUnit);
+        this.databaseName = builder.databaseName;
+        this.serverAddresses = builder.serverAddresses;
+        this.mongoCredentials = builder.mongoCredentials;
+        this.mongoClientOptions = builder.mongoClientOptions;
+        this.clock = builder.clock;
+        this.idempotentWrites = builder.idempotentWrites;
+        this.nameDictionary = builder.nameDictionary;
+        this.prefix = builder.prefix;
+        this.additionalFields = builder.additionalFields;
+        this.shareMongoClient = builder.shareMongoClient;
+        // first, as it fails if the reporter name is taken and nothing needs to be released then
+        this.metrics = builder.selfMetricsRegistry != null ? new ReporterMetrics(builder.selfMetricsRegistry,
+                builder.selfMetricsName) : null;
+        final MongoDatabase mongoDatabase;
+        if (builder.mongoDatabase != null) {
+            mongoDatabase = builder.mongoDatabase;
+        } else if (builder.mongoClient != null) {
+            mongoDatabase = builder.mongoClient.getDatabase(databaseName);
+        } else if (builder.lazyConnection) {
+            mongoDatabase = null;
+        } else {
+            mongoDatabase = openDatabase();
+        }
+        this.lazyConnection = mongoDatabase == null;
+        this.registry = builder.registry;
+        this.filter = builder.filter;
+        this.tiers = new ReportingTiers();
+        for (Map.Entry<MetricFilter, Long> tier : builder.tiers.entrySet()) {
+            tiers.add(tier.getKey(), tier.getValue());
+        }
+        this.collections = lazyConnection ? new MetricCollections() : new MetricCollections(mongoDatabase);
+        this.names = new MetricNameCache(prefix, builder.nameParser);
+        registry.addListener(names);
+        this.changes = builder.heartbeatIntervals > 0 ? new ChangeTracker(builder.heartbeatIntervals) : null;
+        if (changes != null) {
+            registry.addListener(changes);
+        }
+        this.deltas = builder.deltas ? new DeltaTracker() : null;
+        if (deltas != null) {
+            registry.addListener(deltas);
+        }
+        this.encoder = new MetricDocumentEncoder(
+                lazyConnection ? mongoClientOptions.getCodecRegistry() : mongoDatabase.getCodecRegistry(),
+                additionalFields, new MetricDocumentEncoder.Options()
+                        .distributions(builder.distributions)
+                        .deterministicIds(builder.idempotentWrites)
+                        .schema(builder.schema)
+                        .names(builder.nameDictionary ? new MetricNameDictionary(collections) : null)
+                        .disabledAttributes(builder.disabledAttributes)
+                        .taggedNames(builder.nameParser != null ? names : null));
+        this.histogramSnapshots = !builder.rollupWindows.isEmpty() || encoder.needsSnapshot(MetricCollections.HISTOGRAM);
+        this.timerSnapshots = !builder.rollupWindows.isEmpty() || encoder.needsSnapshot(MetricCollections.TIMER);
+        this.layout = builder.bucketMillis > 0
+                ? new BucketedLayout(builder.bucketMillis, builder.schema)
+                : DocumentLayout.DOCUMENT_PER_SAMPLE;
+        this.writePolicy = new WritePolicy(builder.maxRetries, builder.initialBackoffMillis, builder.maxBackoffMillis,
+                builder.failureThreshold, builder.openMillis, TimeUnit.MILLISECONDS);
+        this.spool = builder.spoolDirectory != null ? openSpool(builder) : null;
+        this.gaugeEvaluator = new GaugeEvaluator(builder.gaugeExecutor, builder.gaugeTimeoutNanos, TimeUnit.NANOSECONDS);
+        if (builder.queueCapacity > 0) {
+            this.batchWriter = null;
+            this.asyncWriter = new AsyncWriter(collections, layout, builder.queueCapacity, builder.writerThreads,
+                    builder.overflowPolicy, builder.batchSize > 0 ? builder.batchSize : AsyncWriter.DEFAULT_BATCH_SIZE,
+                    spool, metrics, writePolicy);
+        } else {
+            this.batchWriter = builder.batchSize > 0
+                    ? new BatchWriter(collections, layout, builder.batchSize, spool, metrics, writePolicy)
+                    : null;
+            this.asyncWriter = null;
+        }
+        this.collectionExecutor = builder.collectionExecutor;
+        this.parallelEncoder = builder.snapshotPool != null
+                ? new ParallelEncoder(builder.snapshotPool, builder.snapshotChunkSize)
+                : null;
+        if (collectionExecutor != null && batchWriter != null) {
+            this.collectionWriters = new HashMap<>();
+            for (String collectionName : MetricCollections.METRIC_COLLECTIONS) {
+                collectionWriters.put(collectionName,
+                        new BatchWriter(collections, layout, builder.batchSize, spool, metrics, writePolicy));
+            }
+        } else {
+            this.collectionWriters = null;
+        }
+        if (metrics != null && asyncWriter != null) {
+            metrics.registerQueue(asyncWriter);
+        }
+        if (metrics != null && spool != null) {
+            metrics.registerSpool(spool);
+        }
+        this.cardinality = builder.maxNamesPerPrefix > 0
+                ? new CardinalityLimiter(builder.maxNamesPerPrefix, builder.cardinalityPolicy)
+                : null;
+        if (cardinality != null) {
+            registry.addListener(cardinality);
+        }
+        if (metrics != null && cardinality != null) {
+            metrics.registerCardinality(cardinality);
+        }
+        this.rollups = builder.rollupWindows.isEmpty() ? null : new RollupEngine(encoder, builder.rollupWindows);
+        if (builder.ensureIndexes) {
+            this.indexManager = new IndexManager(collections, MetricCollections.METRIC_COLLECTIONS,
+                    builder.retentionSeconds, builder.schema, builder.tagIndexKeys);
+        } else {
+            this.indexManager = null;
+        }
+        if (builder.ensureIndexes && rollups != null) {
+            this.rollupIndexManager = new IndexManager(collections, rollups.collectionNames(),
+                    builder.rollupRetentionSeconds, builder.schema, builder.tagIndexKeys);
+        } else {
+            this.rollupIndexManager = null;
+        }
+    }
+
+    @Override
+    public void start(long period, TimeUnit unit) {
+        periodMillis = Math.max(1, unit.toMillis(period));
+        if (lazyConnection) {
+            synchronized (connectionLock) {
+                if (connector == null) {
+                    connector = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            connect();
+                        }
+                    }, "mongodb-reporter-connect");
+                    connector.setDaemon(true);
+                    connector.start();
+                }
+            }
+        } else if (indexManager != null) {
+            indexManager.startInBackground();
+            if (rollupIndexManager != null) {
+                rollupIndexManager.startInBackground();
+            }
+        }
+        super.start(period, unit);
+    }
+
+    /**
+     * @return whether the reporter is connected to MongoDB; always {@code true} unless the connection is lazy
+     * @see Builder#withLazyConnection(boolean)
+     */
+    public boolean isReady() {
+        return collections.isConnected();
+    }
+
+    /**
+     * Creates the client and waits until MongoDB answers a ping, then lets the reporter write.
+     */
+    private void connect() {
+        final MongoDatabase database;
+        try {
+            database = openDatabase();
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to create MongoDB client, metrics will not be reported", e);
+            return;
+        }
+        if (database == null) {
+            return;
+        }
+        boolean warned = false;
+        while (!stopped.get()) {
+            try {
+                database.runCommand(PING);
+                break;
+            } catch (IllegalStateException e) {
+                // client closed by stop()
+                return;
+            } catch (MongoException e) {
+                if (!warned) {
+                    LOGGER.warn("MongoDB not reachable yet, retrying every {} seconds: {}", CONNECT_RETRY_SECONDS,
+                            e.getMessage());
+                    warned = true;
+                }
+            }
+            try {
+                TimeUnit.SECONDS.sleep(CONNECT_RETRY_SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        if (stopped.get()) {
+            return;
+        }
+        collections.connect(database);
+        LOGGER.info("Connected to MongoDB database {}", databaseName);
+        if (indexManager != null) {
+            indexManager.run();
+        }
+        if (rollupIndexManager != null) {
+            rollupIndexManager.run();
+        }
+    }
+
+    /**
+     * Creates or acquires the client.
+     *
+     * @return the database, or {@code null} if the reporter was stopped
+     */
+    private MongoDatabase openDatabase() {
+        synchronized (connectionLock) {
+            if (stopped.get()) {
+                return null;
+            }
+            if (shareMongoClient) {
+                sharedMongoClient = SharedMongoClient.acquire(serverAddresses, mongoCredentials, mongoClientOptions);
+                return sharedMongoClient.getClient().getDatabase(databaseName);
+            }
+            ownMongoClient = createClient();
+            return ownMongoClient.getDatabase(databaseName);
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        registry.removeListener(names);
+        if (changes != null) {
+            registry.removeListener(changes);
+        }
+        if (deltas != null) {
+            registry.removeListener(deltas);
+        }
+        if (cardinality != null) {
+            registry.removeListener(cardinality);
+        }
+        if (rollups != null) {
+            synchronized (this) {
+                if (idempotentWrites) {
+                    // the partial window would take the _id of the whole window, so after a restart the rest of the
+                    // window would be rejected as duplicate
+                    LOGGER.info("Not writing rollup windows still open, idempotent writes are enabled");
+                } else {
+                    rollups.flush(rollupSink);
+                }
+                if (batchWriter != null) {
+                    batchWriter.flush();
+                }
+            }
+        }
+        if (asyncWriter != null) {
+            asyncWriter.close(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        if (spool != null) {
+            spool.close();
+        }
+        if (metrics != null) {
+            metrics.remove();
+        }
+        synchronized (connectionLock) {
+            if (connector != null) {
+                connector.interrupt();
+            }
+            if (sharedMongoClient != null) {
+                sharedMongoClient.release();
+            } else if (ownMongoClient != null) {
+                ownMongoClient.close();
+            }
+        }
+    }
+
+    private MetricSpool openSpool(Builder builder) {
+        try {
+            return new MetricSpool(builder.spoolDirectory, builder.spoolSegmentSize, builder.maxSpoolSize,
+                    builder.spoolReplayRate, SPOOL_REPLAY_INTERVAL_SECONDS, TimeUnit.SECONDS, collections, layout,
+                    writePolicy);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open spool directory " + builder.spoolDirectory, e);
+        }
+    }
+
+    @Override
+    public void report() {
+        if (tiers.isEmpty()) {
+            super.report();
+            return;
+        }
+        synchronized (this) {
+            final long start = nanoTime();
+            final MetricFilter due = tiers.due(filter, clock.getTime(), periodMillis);
+            final SortedMap<String, Gauge> gauges = registry.getGauges(due);
+            final SortedMap<String, Counter> counters = registry.getCounters(due);
+            final SortedMap<String, Histogram> histograms = registry.getHistograms(due);
+            final SortedMap<String, Meter> meters = registry.getMeters(due);
+            final SortedMap<String, Timer> timers = registry.getTimers(due);
+            snapshotNanos.addAndGet(nanoTime() - start);
+            report(gauges, counters, histograms, meters, timers);
+        }
     }
 
     @Override
@@ -252,122 +1231,438 @@ public class MongoDBReporter extends ScheduledReporter {
             return;
         }
 
-        final Date reportingTime = Date.from(ZonedDateTime.now(ZoneOffset.UTC).toInstant());
-
-        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-            if (entry.getValue().getValue() != null) {
-                reportGauge(entry.getKey(), entry.getValue(), reportingTime);
+        if (!collections.isConnected() && spool == null) {
+            LOGGER.debug("Not connected to MongoDB yet, skipping report cycle");
+            return;
+        }
+        if (!collections.isConnected() && nameDictionary) {
+            // spooling documents with names instead of ids would mix both in the collections
+            if (!warnedNameIds) {
+                LOGGER.info("Metric name ids unknown until connected to MongoDB, skipping report cycles until then");
+                warnedNameIds = true;
             }
+            return;
         }
-
-        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-            reportCounter(entry.getKey(), entry.getValue(), reportingTime);
+        if (writePolicy.isOpen() && spool == null && asyncWriter == null) {
+            LOGGER.debug("Writes paused, skipping report cycle");
+            return;
         }
 
-        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-            reportHistogram(entry.getKey(), entry.getValue(), reportingTime);
+        final long cycleStart = nanoTime();
+        final long reportingTime = reportingTime();
+        if (rollups != null) {
+            rollups.advance(reportingTime, rollupSink);
         }
 
-        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-            reportMetered(entry.getKey(), entry.getValue(), reportingTime);
-        }
+        final Map<String, SortedMap<String, ?>> metricsByCollection = new LinkedHashMap<>();
+        metricsByCollection.put(MetricCollections.GAUGE, gauges);
+        metricsByCollection.put(MetricCollections.COUNTER, counters);
+        metricsByCollection.put(MetricCollections.HISTOGRAM, histograms);
+        metricsByCollection.put(MetricCollections.METERED, meters);
+        metricsByCollection.put(MetricCollections.TIMER, timers);
+        final ReportOutcome outcome = collectionExecutor != null
+                ? reportConcurrently(metricsByCollection, reportingTime)
+                : reportSerially(metricsByCollection, reportingTime);
 
-        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-            reportTimer(entry.getKey(), entry.getValue(), reportingTime);
+        if (batchWriter != null && rollups != null) {
+            for (String collectionName : rollups.collectionNames()) {
+                outcome.record(collectionName, batchWriter.flush(collectionName));
+            }
+        }
+        if (spool != null) {
+            spool.force();
+        }
+        if (asyncWriter != null) {
+            final long drops = asyncWriter.dropped();
+            if (drops > reportedDrops) {
+                LOGGER.warn("Dropped {} metric documents because the write queue was full", drops - reportedDrops);
+                reportedDrops = drops;
+            }
+        }
+        if (cardinality != null) {
+            final long rejections = cardinality.rejected();
+            if (rejections > reportedRejections) {
+                LOGGER.warn("Rejected {} metric values over the cardinality limit, estimated names by prefix: {}",
+                        rejections - reportedRejections, cardinality.limitedPrefixes());
+                reportedRejections = rejections;
+            }
+        }
+        if (metrics != null) {
+            metrics.cycle(nanoTime() - cycleStart, snapshotNanos.getAndSet(0), encodeNanos.getAndSet(0));
+        }
+        if (!outcome.isSuccessful()) {
+            LOGGER.warn("Report cycle incomplete: {}", outcome);
         }
+        lastOutcome = outcome;
+    }
 
+    /**
+     * @return the outcome of the last report cycle, or {@code null} if no metrics have been reported yet
+     */
+    public ReportOutcome getLastOutcome() {
+        return lastOutcome;
+    }
+
+    private ReportOutcome reportSerially(Map<String, SortedMap<String, ?>> metricsByCollection, long timestamp) {
+        final ReportOutcome outcome = new ReportOutcome();
+        for (Map.Entry<String, SortedMap<String, ?>> entry : metricsByCollection.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                outcome.record(entry.getKey(), reportCollection(entry.getKey(), entry.getValue(), timestamp));
+            }
+        }
+        return outcome;
     }
 
-    private void reportGauge(final String name, final Gauge gauge, final Date timestamp) {
-        final MongoCollection coll = mongoDatabase.getCollection("gauge");
-        final Object value = gauge.getValue();
+    /**
+     * Reports each collection as a task of the collection executor and waits for all of them. A collection failing
+     * does not affect the others, and collections the executor rejects are reported on the calling thread. With
+     * batching every collection gets its own batch; writes queued on the async writer are not affected.
+     */
+    private ReportOutcome reportConcurrently(Map<String, SortedMap<String, ?>> metricsByCollection,
+            final long timestamp) {
+        final Map<String, Future<Integer>> tasks = new LinkedHashMap<>();
+        for (final Map.Entry<String, SortedMap<String, ?>> entry : metricsByCollection.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            final Callable<Integer> task = new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return reportCollection(entry.getKey(), entry.getValue(), timestamp);
+                }
+            };
+            try {
+                tasks.put(entry.getKey(), collectionExecutor.submit(task));
+            } catch (RejectedExecutionException e) {
+                final FutureTask<Integer> future = new FutureTask<>(task);
+                future.run();
+                tasks.put(entry.getKey(), future);
+            }
+        }
+        final ReportOutcome outcome = new ReportOutcome();
+        for (Map.Entry<String, Future<Integer>> task : tasks.entrySet()) {
+            try {
+                outcome.record(task.getKey(), task.getValue().get());
+            } catch (ExecutionException e) {
+                LOGGER.warn("Unable to report {} metrics", task.getKey(), e.getCause());
+                outcome.fail(task.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                // the reporter is stopping; the remaining tasks finish on their own
+                Thread.currentThread().interrupt();
+                outcome.fail(task.getKey(), e);
+                break;
+            }
+        }
+        return outcome;
+    }
 
-        final GaugeEntity entity = new GaugeEntity();
-        entity.setName(name(prefix, name));
-        entity.setTimestamp(timestamp);
-        entity.setValue(value);
+    /**
+     * Reports the metrics of one collection and writes its pending batch.
+     *
+     * @return the number of documents that could not be written
+     */
+    @SuppressWarnings("unchecked")
+    private int reportCollection(String collectionName, SortedMap<String, ?> metricsOfCollection,
+            final long timestamp) {
+        int failures = 0;
+        if (MetricCollections.GAUGE.equals(collectionName)) {
+            final long gaugeStart = nanoTime();
+            final Map<String, Object> gaugeValues = gaugeEvaluator.evaluate((Map<String, Gauge>) metricsOfCollection);
+            snapshotNanos.addAndGet(nanoTime() - gaugeStart);
+            for (Map.Entry<String, Object> entry : gaugeValues.entrySet()) {
+                failures += reportGauge(entry.getKey(), entry.getValue(), timestamp);
+            }
+        } else if (parallelEncoder != null && MetricCollections.HISTOGRAM.equals(collectionName)) {
+            final List<RawBsonDocument> documents = parallelEncoder.encode((Map<String, Histogram>) metricsOfCollection,
+                    new ParallelEncoder.Encoding<Histogram>() {
+                        @Override
+                        public RawBsonDocument encode(String name, Histogram histogram) {
+                            return encodeHistogram(name, histogram, timestamp);
+                        }
+                    });
+            failures += storeAll(collectionName, metricsOfCollection.keySet(), documents);
+        } else if (parallelEncoder != null && MetricCollections.TIMER.equals(collectionName)) {
+            final List<RawBsonDocument> documents = parallelEncoder.encode((Map<String, Timer>) metricsOfCollection,
+                    new ParallelEncoder.Encoding<Timer>() {
+                        @Override
+                        public RawBsonDocument encode(String name, Timer timer) {
+                            return encodeTimer(name, timer, timestamp);
+                        }
+                    });
+            failures += storeAll(collectionName, metricsOfCollection.keySet(), documents);
+        } else {
+            for (Map.Entry<String, ?> entry : metricsOfCollection.entrySet()) {
+                switch (collectionName) {
+                    case MetricCollections.COUNTER:
+                        failures += reportCounter(entry.getKey(), (Counter) entry.getValue(), timestamp);
+                        break;
+                    case MetricCollections.HISTOGRAM:
+                        failures += reportHistogram(entry.getKey(), (Histogram) entry.getValue(), timestamp);
+                        break;
+                    case MetricCollections.METERED:
+                        failures += reportMetered(entry.getKey(), (Metered) entry.getValue(), timestamp);
+                        break;
+                    default:
+                        failures += reportTimer(entry.getKey(), (Timer) entry.getValue(), timestamp);
+                }
+            }
+        }
+        final BatchWriter writer = writerFor(collectionName);
+        if (writer != null) {
+            failures += writer.flush(collectionName);
+        }
+        return failures;
+    }
 
-        try {
-            storeInMongo(coll, entity);
-        } catch (MongoException e) {
-            LOGGER.warn("Unable to report gauge {}", name, e);
+    /**
+     * Stores documents encoded in parallel, in the order of their metrics. Metrics dropped by the cardinality limit
+     * have no document.
+     */
+    private int storeAll(String collectionName, Collection<String> metricNames, List<RawBsonDocument> documents) {
+        int failures = 0;
+        final Iterator<RawBsonDocument> document = documents.iterator();
+        for (String name : metricNames) {
+            final RawBsonDocument next = document.next();
+            if (next != null) {
+                failures += storeInMongo(collectionName, name, next);
+            }
         }
+        return failures;
     }
 
-    private void reportCounter(final String name, final Counter counter, final Date timestamp) {
-        final MongoCollection coll = mongoDatabase.getCollection("counter");
+    /**
+     * @return the batch writer of the collection; with concurrent collections every metric collection has its own
+     */
+    private BatchWriter writerFor(String collectionName) {
+        if (collectionWriters != null) {
+            final BatchWriter writer = collectionWriters.get(collectionName);
+            if (writer != null) {
+                return writer;
+            }
+        }
+        return batchWriter;
+    }
 
-        final CounterEntity entity = new CounterEntity();
-        entity.setName(name(prefix, name));
-        entity.setCount(counter.getCount());
-        entity.setTimestamp(timestamp);
+    /**
+     * @return the timestamp of the current report cycle; with idempotent writes the start of the current period,
+     * moved to the next period if a late previous cycle already used it
+     */
+    private long reportingTime() {
+        final long now = clock.getTime();
+        if (deltas != null) {
+            deltas.startCycle(now);
+        }
+        if (!idempotentWrites) {
+            return now;
+        }
+        long tick = now - Math.floorMod(now, periodMillis);
+        if (tick <= lastTick && now - lastTick >= periodMillis / 2) {
+            tick = lastTick + periodMillis;
+        }
+        lastTick = Math.max(tick, lastTick);
+        return lastTick;
+    }
 
-        try {
-            storeInMongo(coll, entity);
-        } catch (MongoException e) {
-            LOGGER.warn("Unable to report counter {}", name, e);
+    private int reportGauge(final String name, final Object value, final long timestamp) {
+        final String prefixedName = documentName(name);
+        if (prefixedName == null) {
+            return 0;
+        }
+        final long start = nanoTime();
+        if (rollups != null && value instanceof Number) {
+            rollups.recordValue(MetricCollections.GAUGE, prefixedName, ((Number) value).doubleValue());
         }
+        if (changes != null && !changes.changed(name, value)) {
+            snapshotNanos.addAndGet(nanoTime() - start);
+            return 0;
+        }
+        final long encodeStart = nanoTime();
+        final RawBsonDocument document = encoder.encodeGauge(prefixedName, timestamp, value);
+        timed(start, encodeStart);
+        final int failures = storeInMongo(MetricCollections.GAUGE, name, document);
+        if (changes != null && failures == 0) {
+            changes.written(name, value);
+        }
+        return failures;
     }
 
-    private void reportHistogram(final String name, final Histogram histogram, final Date timestamp) {
-        final MongoCollection coll = mongoDatabase.getCollection("histogram");
+    private int reportCounter(final String name, final Counter counter, final long timestamp) {
+        final String prefixedName = documentName(name);
+        if (prefixedName == null) {
+            return 0;
+        }
+        final long start = nanoTime();
+        final long count = counter.getCount();
+        if (rollups != null) {
+            rollups.recordValue(MetricCollections.COUNTER, prefixedName, count);
+        }
+        final DeltaTracker.Delta delta = deltas != null ? deltas.delta(name, count, false) : null;
+        if (changes != null && !changes.changed(name, count)) {
+            snapshotNanos.addAndGet(nanoTime() - start);
+            return 0;
+        }
+        final long encodeStart = nanoTime();
+        final RawBsonDocument document = encoder.encodeCounter(prefixedName, timestamp, count, delta);
+        timed(start, encodeStart);
+        final int failures = storeInMongo(MetricCollections.COUNTER, name, document);
+        if (changes != null && failures == 0) {
+            changes.written(name, count);
+        }
+        return failures;
+    }
 
-        final Snapshot snapshot = histogram.getSnapshot();
-        final HistogramEntity entity = new HistogramEntity(snapshot);
-        entity.setName(name(prefix, name));
-        entity.setCount(histogram.getCount());
-        entity.setTimestamp(timestamp);
+    private int reportHistogram(final String name, final Histogram histogram, final long timestamp) {
+        final RawBsonDocument document = encodeHistogram(name, histogram, timestamp);
+        return document != null ? storeInMongo(MetricCollections.HISTOGRAM, name, document) : 0;
+    }
 
-        try {
-            storeInMongo(coll, entity);
-        } catch (MongoException e) {
-            LOGGER.warn("Unable to report histogram {}", name, e);
+    private RawBsonDocument encodeHistogram(final String name, final Histogram histogram, final long timestamp) {
+        final String prefixedName = documentName(name);
+        if (prefixedName == null) {
+            return null;
+        }
+        final long start = nanoTime();
+        final Snapshot snapshot = histogramSnapshots ? histogram.getSnapshot() : null;
+        final long count = histogram.getCount();
+        if (rollups != null) {
+            rollups.recordDistribution(MetricCollections.HISTOGRAM, prefixedName, count, snapshot);
         }
+        final long encodeStart = nanoTime();
+        final RawBsonDocument document = encoder.encodeHistogram(prefixedName, timestamp, count, snapshot);
+        timed(start, encodeStart);
+        return document;
     }
 
-    private void reportMetered(final String name, final Metered meter, final Date timestamp) {
-        final MongoCollection coll = mongoDatabase.getCollection("metered");
-        final MeteredEntity entity = new MeteredEntity(meter);
-        entity.setName(name(prefix, name));
-        entity.setTimestamp(timestamp);
-        try {
-            storeInMongo(coll, entity);
-        } catch (MongoException e) {
-            LOGGER.warn("Unable to report meter {}", name, e);
+    private int reportMetered(final String name, final Metered meter, final long timestamp) {
+        final String prefixedName = documentName(name);
+        if (prefixedName == null) {
+            return 0;
+        }
+        final long start = nanoTime();
+        final long count = meter.getCount();
+        if (rollups != null) {
+            rollups.recordValue(MetricCollections.METERED, prefixedName, count);
         }
+        final DeltaTracker.Delta delta = deltas != null ? deltas.delta(name, count, true) : null;
+        if (changes != null && !changes.changed(name, count)) {
+            snapshotNanos.addAndGet(nanoTime() - start);
+            return 0;
+        }
+        final long encodeStart = nanoTime();
+        final RawBsonDocument document = encoder.encodeMetered(prefixedName, timestamp, meter, delta);
+        timed(start, encodeStart);
+        final int failures = storeInMongo(MetricCollections.METERED, name, document);
+        if (changes != null && failures == 0) {
+            changes.written(name, count);
+        }
+        return failures;
     }
 
-    private void reportTimer(final String name, final Timer timer, final Date timestamp) {
-        final MongoCollection coll = mongoDatabase.getCollection("timer");
-        final TimerEntity entity = new TimerEntity(timer);
-        entity.setName(name(prefix, name));
-        entity.setTimestamp(timestamp);
+    private int reportTimer(final String name, final Timer timer, final long timestamp) {
+        final RawBsonDocument document = encodeTimer(name, timer, timestamp);
+        return document != null ? storeInMongo(MetricCollections.TIMER, name, document) : 0;
+    }
 
-        try {
-            storeInMongo(coll, entity);
-        } catch (MongoException e) {
-            LOGGER.warn("Unable to report timer {}", name, e);
+    private RawBsonDocument encodeTimer(final String name, final Timer timer, final long timestamp) {
+        final String prefixedName = documentName(name);
+        if (prefixedName == null) {
+            return null;
+        }
+        final long start = nanoTime();
+        final Snapshot snapshot = timerSnapshots ? timer.getSnapshot() : null;
+        if (rollups != null) {
+            rollups.recordDistribution(MetricCollections.TIMER, prefixedName, timer.getCount(), snapshot);
         }
+        final long encodeStart = nanoTime();
+        final RawBsonDocument document = encoder.encodeTimer(prefixedName, timestamp, timer, snapshot);
+        timed(start, encodeStart);
+        return document;
+    }
+
+    /**
+     * @param name name of the metric in the registry
+     * @return the prefixed name to write the metric under, or {@code null} if the cardinality limit drops it
+     */
+    private String documentName(String name) {
+        final String admitted = cardinality != null ? cardinality.admit(name) : name;
+        return admitted != null ? names.prefixed(admitted) : null;
+    }
+
+    /**
+     * @return the current time for self-instrumentation, or 0 when it is disabled
+     */
+    private long nanoTime() {
+        return metrics != null ? System.nanoTime() : 0L;
     }
 
-    private void storeInMongo(MongoCollection coll, BaseEntity entity) {
-        final Document document = new Document(entity);
+    private void timed(long start, long encodeStart) {
+        if (metrics != null) {
+            snapshotNanos.addAndGet(encodeStart - start);
+            encodeNanos.addAndGet(System.nanoTime() - encodeStart);
+        }
+    }
 
-        if (additionalFields != null) {
-            for (final Map.Entry<String, Object> field : additionalFields.entrySet()) {
-                document.putIfAbsent(field.getKey(), field.getValue());
+    /**
+     * @return the number of documents that could not be written, i.e. 0 or 1
+     */
+    private int storeInMongo(final String collectionName, String name, RawBsonDocument document) {
+        if (!collections.isConnected()) {
+            if (spool != null) {
+                spool.append(collectionName, Collections.singletonList(document));
+            }
+            return 1;
+        }
+        if (asyncWriter != null) {
+            asyncWriter.enqueue(collectionName, document);
+            return 0;
+        }
+        final BatchWriter writer = writerFor(collectionName);
+        if (writer != null) {
+            return writer.add(collectionName, document);
+        }
+        final long start = nanoTime();
+        int failures = 1;
+        try {
+            final List<WriteModel<RawBsonDocument>> requests = Collections.singletonList(
+                    layout.toWriteModel(collectionName, document));
+            writePolicy.execute(new WritePolicy.Write<BulkWriteResult>() {
+                @Override
+                public BulkWriteResult execute() {
+                    return collections.get(collectionName).bulkWrite(requests);
+                }
+            });
+            failures = 0;
+        } catch (MongoBulkWriteException e) {
+            if (!e.getWriteErrors().isEmpty() && BatchWriter.isDuplicateKey(e.getWriteErrors().get(0))) {
+                LOGGER.debug("Skipping {} {}, it was already written", collectionName, name);
+                failures = 0;
+            } else {
+                LOGGER.warn("Unable to report {} {}", collectionName, name, e);
+            }
+        } catch (WritePolicy.CircuitOpenException e) {
+            if (spool != null) {
+                spool.append(collectionName, Collections.singletonList(document));
+            }
+        } catch (MongoException e) {
+            if (spool != null) {
+                LOGGER.warn("Unable to report {} {}, spooling it: {}", collectionName, name, e.getMessage());
+                spool.append(collectionName, Collections.singletonList(document));
+            } else {
+                LOGGER.warn("Unable to report {} {}", collectionName, name, e);
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.write(collectionName, 1, failures, document.getByteBuffer().remaining(),
+                        System.nanoTime() - start);
             }
         }
-        coll.insertOne(document);
+        return failures;
     }
 
-    private MongoDatabase getDB() {
-        MongoClient mongoClient = null;
+    private MongoClient createClient() {
         if (mongoCredentials == null) {
-            mongoClient = new MongoClient(Arrays.asList(serverAddresses), mongoClientOptions);
-        } else {
-            mongoClient = new MongoClient(Arrays.asList(serverAddresses), Arrays.asList(mongoCredentials), mongoClientOptions);
+            return new MongoClient(Arrays.asList(serverAddresses), mongoClientOptions);
         }
-        return mongoClient.getDatabase(databaseName);
+        return new MongoClient(Arrays.asList(serverAddresses), Arrays.asList(mongoCredentials), mongoClientOptions);
     }
 }
@@ -0,0 +1,24 @@
+package io.github.aparnachaudhary.metrics;
+
+/**
+ * What the asynchronous write pipeline does with a document when its queue is full.
+ *
+ * @author aparna
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Block the reporting thread until a writer thread makes room in the queue.
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest queued document to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new document.
+     */
+    DROP_NEWEST
+}
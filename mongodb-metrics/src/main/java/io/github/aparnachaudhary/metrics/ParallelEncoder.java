@@ -0,0 +1,109 @@
+package io.github.aparnachaudhary.metrics;
+
+import org.bson.RawBsonDocument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Encodes the histograms or timers of a report cycle on a fork-join pool. Taking a snapshot copies and sorts the
+ * reservoir, which dominates the cycle with thousands of large reservoirs; the metrics are therefore split into chunks
+ * whose snapshots and documents are built in parallel. The documents are returned in the order of the metrics, so they
+ * are written in the same order as without the pool. Collections not larger than one chunk are encoded on the calling
+ * thread.
+ *
+ * @author aparna
+ */
+class ParallelEncoder {
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * @param pool      pool building the snapshots and documents
+     * @param chunkSize number of metrics encoded by one task
+     */
+    ParallelEncoder(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Encoding of a single metric.
+     *
+     * @param <M> type of the metric
+     */
+    interface Encoding<M> {
+
+        RawBsonDocument encode(String name, M metric);
+    }
+
+    /**
+     * @param metrics  metrics to encode, by name
+     * @param encoding encoding of a metric
+     * @param <M>      type of the metrics
+     * @return the documents, in the order of {@code metrics}
+     */
+    <M> List<RawBsonDocument> encode(Map<String, M> metrics, Encoding<M> encoding) {
+        final List<Map.Entry<String, M>> entries = new ArrayList<>(metrics.entrySet());
+        final RawBsonDocument[] documents = new RawBsonDocument[entries.size()];
+        final Chunk<M> all = new Chunk<>(entries, encoding, documents, 0, entries.size());
+        if (entries.size() <= chunkSize) {
+            all.encodeAll();
+        } else {
+            try {
+                pool.invoke(all);
+            } catch (RejectedExecutionException e) {
+                // pool shut down, encode on the reporting thread instead
+                all.encodeAll();
+            }
+        }
+        return Arrays.asList(documents);
+    }
+
+    private final class Chunk<M> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map.Entry<String, M>> entries;
+        private final Encoding<M> encoding;
+        private final RawBsonDocument[] documents;
+        private final int from;
+        private final int to;
+
+        private Chunk(List<Map.Entry<String, M>> entries, Encoding<M> encoding, RawBsonDocument[] documents, int from,
+                int to) {
+            this.entries = entries;
+            this.encoding = encoding;
+            this.documents = documents;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                encodeAll();
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new Chunk<>(entries, encoding, documents, from, middle),
+                    new Chunk<>(entries, encoding, documents, middle, to));
+        }
+
+        private void encodeAll() {
+            for (int i = from; i < to; i++) {
+                final Map.Entry<String, M> entry = entries.get(i);
+                documents[i] = encoding.encode(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.aparnachaudhary.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a report cycle per metric collection: the number of documents that could not be written, including
+ * spooled ones, and the error that aborted a collection, if any. Documents written asynchronously count as written.
+ *
+ * @author aparna
+ */
+public final class ReportOutcome {
+
+    private final Map<String, Integer> failedDocuments = new LinkedHashMap<>();
+    private final Map<String, Throwable> errors = new LinkedHashMap<>();
+
+    ReportOutcome() {
+    }
+
+    synchronized void record(String collectionName, int failures) {
+        final Integer previous = failedDocuments.get(collectionName);
+        failedDocuments.put(collectionName, previous == null ? failures : previous + failures);
+    }
+
+    synchronized void fail(String collectionName, Throwable error) {
+        errors.put(collectionName, error);
+    }
+
+    /**
+     * @return whether all documents of the cycle were written
+     */
+    public synchronized boolean isSuccessful() {
+        return errors.isEmpty() && getFailedDocuments() == 0;
+    }
+
+    /**
+     * @return the number of documents of the cycle that could not be written
+     */
+    public synchronized int getFailedDocuments() {
+        int failures = 0;
+        for (Integer collectionFailures : failedDocuments.values()) {
+            failures += collectionFailures;
+        }
+        return failures;
+    }
+
+    /**
+     * @param collectionName metric collection, e.g. {@code timer}
+     * @return the number of documents of the collection that could not be written
+     */
+    public synchronized int getFailedDocuments(String collectionName) {
+        final Integer failures = failedDocuments.get(collectionName);
+        return failures == null ? 0 : failures;
+    }
+
+    /**
+     * @return the errors that aborted reporting a collection, by collection name
+     */
+    public synchronized Map<String, Throwable> getErrors() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(errors));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReportOutcome{failedDocuments=" + failedDocuments + ", errors=" + errors.keySet() + '}';
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics about the reporter itself, registered under {@code mongodb-reporter.*}, or under
+ * {@code mongodb-reporter.<reporter name>.*} so several reporters can share a registry:
+ * <ul>
+ * <li>{@code cycle}, {@code snapshot}, {@code encode}: timers of the report cycle, of reading the metric values and
+ * snapshots, and of encoding the documents</li>
+ * <li>{@code write.<collection>}: timer of the bulk writes per collection</li>
+ * <li>{@code documents.written}, {@code documents.failed}, {@code bytes}: meters of the documents and BSON bytes sent
+ * to MongoDB</li>
+ * <li>{@code queue.depth}, {@code queue.dropped}, {@code spool.segments}, {@code spool.discarded}: gauges of the write
+ * queue and spool, when enabled</li>
+ * <li>{@code cardinality.rejected}, {@code cardinality.limited}: gauges of the metric values dropped or collapsed by
+ * the cardinality limit and of the prefixes that reached it, when enabled</li>
+ * </ul>
+ * Each metric is created and registered by this reporter, so registering a name twice fails and {@link #remove()}
+ * removes only the metrics of this reporter.
+ *
+ * @author aparna
+ */
+class ReporterMetrics {
+
+    static final String PREFIX = "mongodb-reporter";
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final List<String> names = new ArrayList<>();
+    private final Timer cycle;
+    private final Timer snapshot;
+    private final Timer encode;
+    private final Meter written;
+    private final Meter failed;
+    private final Meter bytes;
+    private final ConcurrentMap<String, Timer> writes = new ConcurrentHashMap<>();
+
+    /**
+     * @param registry     registry for the metrics
+     * @param reporterName name of the reporter among the reporters sharing the registry, or {@code null}
+     * @throws IllegalArgumentException if a reporter with the same name already registered its metrics
+     */
+    ReporterMetrics(MetricRegistry registry, String reporterName) {
+        this.registry = registry;
+        this.prefix = reporterName != null ? MetricRegistry.name(PREFIX, reporterName) : PREFIX;
+        this.cycle = register("cycle", new Timer());
+        this.snapshot = register("snapshot", new Timer());
+        this.encode = register("encode", new Timer());
+        this.written = register(MetricRegistry.name("documents", "written"), new Meter());
+        this.failed = register(MetricRegistry.name("documents", "failed"), new Meter());
+        this.bytes = register("bytes", new Meter());
+    }
+
+    void registerQueue(final AsyncWriter asyncWriter) {
+        register(MetricRegistry.name("queue", "depth"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return asyncWriter.size();
+            }
+        });
+        register(MetricRegistry.name("queue", "dropped"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return asyncWriter.dropped();
+            }
+        });
+    }
+
+    void registerSpool(final MetricSpool spool) {
+        register(MetricRegistry.name("spool", "segments"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return spool.segments();
+            }
+        });
+        register(MetricRegistry.name("spool", "discarded"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return spool.discarded();
+            }
+        });
+    }
+
+    void registerCardinality(final CardinalityLimiter limiter) {
+        register(MetricRegistry.name("cardinality", "rejected"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return limiter.rejected();
+            }
+        });
+        register(MetricRegistry.name("cardinality", "limited"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return limiter.limitedPrefixes().size();
+            }
+        });
+    }
+
+    /**
+     * Records the phases of a report cycle.
+     *
+     * @param cycleNanos    duration of the whole cycle
+     * @param snapshotNanos time spent reading metric values and snapshots
+     * @param encodeNanos   time spent encoding documents
+     */
+    void cycle(long cycleNanos, long snapshotNanos, long encodeNanos) {
+        cycle.update(cycleNanos, TimeUnit.NANOSECONDS);
+        snapshot.update(snapshotNanos, TimeUnit.NANOSECONDS);
+        encode.update(encodeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a write to a collection.
+     *
+     * @param collectionName target collection
+     * @param documents      number of documents sent
+     * @param failures       number of documents that could not be written
+     * @param size           number of BSON bytes sent
+     * @param nanos          duration of the write
+     */
+    void write(String collectionName, int documents, int failures, long size, long nanos) {
+        Timer timer = writes.get(collectionName);
+        if (timer == null) {
+            synchronized (writes) {
+                timer = writes.get(collectionName);
+                if (timer == null) {
+                    timer = register(MetricRegistry.name("write", collectionName), new Timer());
+                    writes.put(collectionName, timer);
+                }
+            }
+        }
+        timer.update(nanos, TimeUnit.NANOSECONDS);
+        written.mark(documents - failures);
+        failed.mark(failures);
+        bytes.mark(size);
+    }
+
+    /**
+     * Removes the metrics registered by this reporter from the registry.
+     */
+    void remove() {
+        synchronized (names) {
+            for (String name : names) {
+                registry.remove(name);
+            }
+            names.clear();
+        }
+    }
+
+    private <T extends Metric> T register(String name, T metric) {
+        final String fullName = MetricRegistry.name(prefix, name);
+        registry.register(fullName, metric);
+        synchronized (names) {
+            names.add(fullName);
+        }
+        return metric;
+    }
+}
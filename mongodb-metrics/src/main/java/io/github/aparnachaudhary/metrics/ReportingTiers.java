@@ -0,0 +1,81 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns metrics to reporting intervals longer than the reporter's period. A metric belongs to the first tier whose
+ * filter matches it; metrics matching no tier are reported every period. On each report cycle only the metrics of the
+ * tiers that are due are read and written.
+ * <p>
+ * Instances are not thread-safe; they are only used from the reporting thread.
+ *
+ * @author aparna
+ */
+class ReportingTiers {
+
+    private final List<Tier> tiers = new ArrayList<>();
+
+    /**
+     * @param filter         metrics of the tier
+     * @param intervalMillis reporting interval of the tier
+     */
+    void add(MetricFilter filter, long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("interval must be positive: " + intervalMillis);
+        }
+        tiers.add(new Tier(filter, intervalMillis));
+    }
+
+    boolean isEmpty() {
+        return tiers.isEmpty();
+    }
+
+    /**
+     * Determines the tiers due at the given time and returns a filter accepting the metrics to report now. A tier is due
+     * once its interval has passed since it was last reported, with half a period of tolerance for scheduling jitter.
+     *
+     * @param base         filter of the reporter
+     * @param now          current time in milliseconds
+     * @param periodMillis period of the reporter
+     * @return filter of the metrics due now
+     */
+    MetricFilter due(final MetricFilter base, long now, long periodMillis) {
+        for (Tier tier : tiers) {
+            tier.due = now >= tier.nextReport;
+            if (tier.due) {
+                tier.nextReport = now + tier.intervalMillis - periodMillis / 2;
+            }
+        }
+        return new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                if (!base.matches(name, metric)) {
+                    return false;
+                }
+                for (Tier tier : tiers) {
+                    if (tier.filter.matches(name, metric)) {
+                        return tier.due;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    private static final class Tier {
+
+        private final MetricFilter filter;
+        private final long intervalMillis;
+        private long nextReport = Long.MIN_VALUE;
+        private boolean due;
+
+        private Tier(MetricFilter filter, long intervalMillis) {
+            this.filter = filter;
+            this.intervalMillis = intervalMillis;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.bson.RawBsonDocument;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates the samples of every report cycle into time windows, e.g. 1 minute and 1 hour, and emits one document per
+ * metric and window when the window ends. Counters, meters and numeric gauges are aggregated into the minimum, maximum,
+ * sum, number of samples and last value; histograms and timers into a {@link LogHistogram} of their snapshot values and
+ * the last count. The documents go to the collection of the metric type with the window as suffix, e.g.
+ * {@code timer_1m}. Windows are aligned to the epoch, so windows of several reporters line up.
+ * <p>
+ * Instances are thread-safe, as the collections of a report cycle may be recorded concurrently.
+ *
+ * @author aparna
+ */
+class RollupEngine {
+
+    /**
+     * Receives the documents of ended windows.
+     */
+    interface Sink {
+
+        /**
+         * @param collectionName rollup collection, e.g. {@code timer_1m}
+         * @param name           metric name
+         * @param document       rollup document
+         */
+        void store(String collectionName, String name, RawBsonDocument document);
+    }
+
+    private final MetricDocumentEncoder encoder;
+    private final List<Window> windows = new ArrayList<>();
+
+    RollupEngine(MetricDocumentEncoder encoder, List<Long> windowMillis) {
+        this.encoder = encoder;
+        for (Long millis : windowMillis) {
+            if (millis < 1) {
+                throw new IllegalArgumentException("window must be positive: " + millis);
+            }
+            windows.add(new Window(millis));
+        }
+    }
+
+    /**
+     * @return the names of all rollup collections written by this engine
+     */
+    List<String> collectionNames() {
+        final List<String> names = new ArrayList<>();
+        for (Window window : windows) {
+            for (String collectionName : MetricCollections.METRIC_COLLECTIONS) {
+                names.add(collectionName + window.suffix);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Moves to the windows containing {@code timestamp}; windows that ended before are emitted to the sink.
+     *
+     * @param timestamp time of the report cycle about to be recorded
+     * @param sink      receiver of the documents of ended windows
+     */
+    synchronized void advance(long timestamp, Sink sink) {
+        for (Window window : windows) {
+            final long start = timestamp - Math.floorMod(timestamp, window.millis);
+            if (window.start != start) {
+                window.flush(sink);
+                window.start = start;
+            }
+        }
+    }
+
+    /**
+     * Emits all windows, including the ones that have not ended yet.
+     *
+     * @param sink receiver of the documents
+     */
+    synchronized void flush(Sink sink) {
+        for (Window window : windows) {
+            window.flush(sink);
+        }
+    }
+
+    synchronized void recordValue(String collectionName, String name, double value) {
+        for (Window window : windows) {
+            ValueAggregate aggregate = (ValueAggregate) window.get(collectionName, name);
+            if (aggregate == null) {
+                aggregate = new ValueAggregate();
+                window.put(collectionName, name, aggregate);
+            }
+            aggregate.add(value);
+        }
+    }
+
+    void recordDistribution(String collectionName, String name, long count, Snapshot snapshot) {
+        // built outside the lock, so snapshots of several collections are converted in parallel
+        final LogHistogram histogram = LogHistogram.of(snapshot.getValues());
+        synchronized (this) {
+            for (Window window : windows) {
+                DistributionAggregate aggregate = (DistributionAggregate) window.get(collectionName, name);
+                if (aggregate == null) {
+                    aggregate = new DistributionAggregate();
+                    window.put(collectionName, name, aggregate);
+                }
+                aggregate.add(count, histogram);
+            }
+        }
+    }
+
+    /**
+     * @param millis length of a window
+     * @return the collection suffix of the window, e.g. {@code _1m} or {@code _1h}
+     */
+    static String suffixOf(long millis) {
+        final TimeUnit[] units = { TimeUnit.DAYS, TimeUnit.HOURS, TimeUnit.MINUTES, TimeUnit.SECONDS };
+        final String[] symbols = { "d", "h", "m", "s" };
+        for (int i = 0; i < units.length; i++) {
+            final long unitMillis = units[i].toMillis(1);
+            if (millis % unitMillis == 0) {
+                return "_" + millis / unitMillis + symbols[i];
+            }
+        }
+        return "_" + millis + "ms";
+    }
+
+    private final class Window {
+
+        private final long millis;
+        private final String suffix;
+        private final Map<String, Map<String, Aggregate>> aggregates = new LinkedHashMap<>();
+        private long start = Long.MIN_VALUE;
+
+        private Window(long millis) {
+            this.millis = millis;
+            this.suffix = suffixOf(millis);
+        }
+
+        private Aggregate get(String collectionName, String name) {
+            final Map<String, Aggregate> metrics = aggregates.get(collectionName);
+            return metrics == null ? null : metrics.get(name);
+        }
+
+        private void put(String collectionName, String name, Aggregate aggregate) {
+            Map<String, Aggregate> metrics = aggregates.get(collectionName);
+            if (metrics == null) {
+                metrics = new LinkedHashMap<>();
+                aggregates.put(collectionName, metrics);
+            }
+            metrics.put(name, aggregate);
+        }
+
+        private void flush(Sink sink) {
+            for (Map.Entry<String, Map<String, Aggregate>> metrics : aggregates.entrySet()) {
+                final String collectionName = metrics.getKey() + suffix;
+                for (Map.Entry<String, Aggregate> metric : metrics.getValue().entrySet()) {
+                    sink.store(collectionName, metric.getKey(), metric.getValue().encode(encoder, metric.getKey(), start));
+                }
+            }
+            aggregates.clear();
+        }
+    }
+
+    private abstract static class Aggregate {
+
+        abstract RawBsonDocument encode(MetricDocumentEncoder encoder, String name, long start);
+    }
+
+    private static final class ValueAggregate extends Aggregate {
+
+        private long samples;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private double last;
+
+        private void add(double value) {
+            samples++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            last = value;
+        }
+
+        @Override
+        RawBsonDocument encode(MetricDocumentEncoder encoder, String name, long start) {
+            return encoder.encodeValueRollup(name, start, samples, min, max, sum, last);
+        }
+    }
+
+    private static final class DistributionAggregate extends Aggregate {
+
+        private long samples;
+        private long count;
+        private final LogHistogram histogram = new LogHistogram();
+
+        private void add(long count, LogHistogram histogram) {
+            samples++;
+            this.count = count;
+            this.histogram.merge(histogram);
+        }
+
+        @Override
+        RawBsonDocument encode(MetricDocumentEncoder encoder, String name, long start) {
+            return encoder.encodeDistributionRollup(name, start, samples, count, histogram);
+        }
+    }
+}
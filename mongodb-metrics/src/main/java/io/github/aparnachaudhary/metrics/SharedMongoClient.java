@@ -0,0 +1,80 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ServerAddress;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link MongoClient} shared by all reporters connecting with the same server addresses, credentials and options.
+ * The client is created by the first reporter acquiring it and closed when the last one releases it.
+ *
+ * @author aparna
+ */
+final class SharedMongoClient {
+
+    private static final Map<List<Object>, SharedMongoClient> CLIENTS = new HashMap<>();
+
+    private final List<Object> key;
+    private final MongoClient client;
+    private int references;
+
+    private SharedMongoClient(List<Object> key, MongoClient client) {
+        this.key = key;
+        this.client = client;
+    }
+
+    /**
+     * Returns the client for the given settings, creating it if no reporter uses one yet.
+     *
+     * @param serverAddresses    server addresses
+     * @param mongoCredentials   credentials, may be {@code null}
+     * @param mongoClientOptions connection options
+     * @return the shared client; {@link #release()} it once it is no longer used
+     */
+    static SharedMongoClient acquire(ServerAddress[] serverAddresses, MongoCredential[] mongoCredentials,
+            MongoClientOptions mongoClientOptions) {
+        final List<ServerAddress> addresses = Arrays.asList(serverAddresses);
+        final List<MongoCredential> credentials = mongoCredentials == null
+                ? Collections.<MongoCredential>emptyList()
+                : Arrays.asList(mongoCredentials);
+        final List<Object> key = Arrays.<Object>asList(addresses, credentials, mongoClientOptions);
+        synchronized (CLIENTS) {
+            SharedMongoClient shared = CLIENTS.get(key);
+            if (shared == null) {
+                shared = new SharedMongoClient(key, new MongoClient(addresses, credentials, mongoClientOptions));
+                CLIENTS.put(key, shared);
+            }
+            shared.references++;
+            return shared;
+        }
+    }
+
+    MongoClient getClient() {
+        return client;
+    }
+
+    /**
+     * Gives up one reference to the client, closing it when it was the last one.
+     */
+    void release() {
+        synchronized (CLIENTS) {
+            if (--references == 0) {
+                CLIENTS.remove(key);
+                client.close();
+            }
+        }
+    }
+
+    static int size() {
+        synchronized (CLIENTS) {
+            return CLIENTS.size();
+        }
+    }
+}
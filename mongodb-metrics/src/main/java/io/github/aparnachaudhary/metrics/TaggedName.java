@@ -0,0 +1,55 @@
+package io.github.aparnachaudhary.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metric name split into a base name and tags by a {@link MetricNameParser}.
+ *
+ * @author aparna
+ */
+public final class TaggedName {
+
+    private final String name;
+    private final Map<String, String> tags;
+
+    /**
+     * @param name base name, stored as {@code name}
+     * @param tags tags, stored in this order as the {@code tags} subdocument
+     */
+    public TaggedName(String name, Map<String, String> tags) {
+        this.name = name;
+        this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TaggedName)) {
+            return false;
+        }
+        final TaggedName other = (TaggedName) o;
+        return name.equals(other.name) && tags.equals(other.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + tags.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name + tags;
+    }
+}
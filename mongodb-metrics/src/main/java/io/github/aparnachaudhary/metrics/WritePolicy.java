@@ -0,0 +1,196 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWaitQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries writes failing because the cluster is unreachable or has no primary, and stops writing for a while once
+ * writes keep failing.
+ * <p>
+ * A write failing with a socket, timeout, not-primary or recovering error is retried up to {@code maxRetries} times,
+ * waiting an exponentially growing backoff with jitter between attempts. Other errors, including the per-document
+ * errors of bulk writes, are not retried. Errors other than {@link MongoException}s, such as a closed client, count as
+ * failed writes without retries. After {@code failureThreshold} consecutive writes have failed even with retries, the
+ * circuit breaker opens: for {@code openDuration} every write fails immediately with a {@link CircuitOpenException}, so
+ * the callers can spool their documents without waiting for the driver's server-selection timeout. Afterwards a single
+ * trial write is let through, which closes the breaker on success and opens it again on failure.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author aparna
+ */
+class WritePolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WritePolicy.class);
+
+    /**
+     * Writes once, without retries and circuit breaker.
+     */
+    static final WritePolicy NONE = new WritePolicy(0, 0, 0, 0, 0, TimeUnit.MILLISECONDS);
+
+    private final int maxRetries;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean open;
+    private boolean trialRunning;
+
+    /**
+     * @param maxRetries       retries of a write failing with a transient error
+     * @param initialBackoff   wait before the first retry, doubled for every further retry
+     * @param maxBackoff       maximum wait between retries
+     * @param failureThreshold consecutive failed writes opening the circuit breaker, 0 to disable it
+     * @param openDuration     time the breaker stays open before a trial write
+     * @param unit             unit of the durations
+     */
+    WritePolicy(int maxRetries, long initialBackoff, long maxBackoff, int failureThreshold, long openDuration,
+            TimeUnit unit) {
+        if (maxRetries < 0 || failureThreshold < 0) {
+            throw new IllegalArgumentException("maxRetries and failureThreshold must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = Math.max(initialBackoffNanos, unit.toNanos(maxBackoff));
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+    }
+
+    /**
+     * A write of the documents of one collection.
+     *
+     * @param <T> result of the write
+     */
+    interface Write<T> {
+
+        T execute();
+    }
+
+    /**
+     * Executes a write according to the policy.
+     *
+     * @param write write to execute
+     * @param <T>   result of the write
+     * @return the result of the write
+     * @throws CircuitOpenException if the circuit breaker is open
+     * @throws MongoException       if the write failed after all retries
+     */
+    <T> T execute(Write<T> write) {
+        if (!allowWrite()) {
+            throw new CircuitOpenException();
+        }
+        long backoff = initialBackoffNanos;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                final T result = write.execute();
+                onSuccess();
+                return result;
+            } catch (MongoException e) {
+                if (!isTransient(e)) {
+                    // the cluster answered, e.g. with per-document errors of a bulk write
+                    onSuccess();
+                    throw e;
+                }
+                if (attempt >= maxRetries || !sleep(backoff)) {
+                    onFailure();
+                    throw e;
+                }
+                LOGGER.debug("Retrying write after transient error: {}", e.getMessage());
+                backoff = Math.min(maxBackoffNanos, backoff * 2);
+            } catch (RuntimeException e) {
+                // e.g. a closed client or a codec error; never leave a trial write running
+                onFailure();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return whether the circuit breaker is open, i.e. writes currently fail immediately
+     */
+    synchronized boolean isOpen() {
+        return open && System.nanoTime() - openUntil < 0;
+    }
+
+    static boolean isTransient(MongoException e) {
+        return e instanceof MongoSocketException || e instanceof MongoTimeoutException
+                || e instanceof MongoNotPrimaryException || e instanceof MongoNodeIsRecoveringException
+                || e instanceof MongoWaitQueueFullException;
+    }
+
+    private synchronized boolean allowWrite() {
+        if (!open) {
+            return true;
+        }
+        if (trialRunning || System.nanoTime() - openUntil < 0) {
+            return false;
+        }
+        trialRunning = true;
+        return true;
+    }
+
+    private synchronized void onSuccess() {
+        if (open) {
+            LOGGER.info("MongoDB is reachable again, resuming writes");
+        }
+        consecutiveFailures = 0;
+        open = false;
+        trialRunning = false;
+    }
+
+    private synchronized void onFailure() {
+        consecutiveFailures++;
+        trialRunning = false;
+        if (failureThreshold > 0 && consecutiveFailures >= failureThreshold) {
+            if (!open) {
+                LOGGER.warn("{} consecutive writes failed, pausing writes for {} ms", consecutiveFailures,
+                        TimeUnit.NANOSECONDS.toMillis(openNanos));
+            }
+            open = true;
+            openUntil = System.nanoTime() + openNanos;
+        }
+    }
+
+    /**
+     * Waits the given backoff with jitter, between half and all of it.
+     *
+     * @return {@code false} if the thread was interrupted
+     */
+    private static boolean sleep(long backoffNanos) {
+        if (backoffNanos <= 0) {
+            return true;
+        }
+        final long half = backoffNanos / 2;
+        try {
+            TimeUnit.NANOSECONDS.sleep(half + ThreadLocalRandom.current().nextLong(half + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Thrown instead of writing while the circuit breaker is open.
+     */
+    static final class CircuitOpenException extends MongoException {
+
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException() {
+            super("Writes paused after repeated failures");
+        }
+    }
+}
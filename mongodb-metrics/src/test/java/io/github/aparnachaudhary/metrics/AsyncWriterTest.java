@@ -0,0 +1,110 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import org.bson.RawBsonDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.aparnachaudhary.metrics.TestDocuments.document;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncWriterTest {
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<RawBsonDocument> collection = mock(MongoCollection.class);
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        when(database.getCollection(anyString(), eq(RawBsonDocument.class))).thenReturn(collection);
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                writing.countDown();
+                release.await();
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void dropsNewestWhenFull() throws Exception {
+        final AsyncWriter writer = writer(2, 1, OverflowPolicy.DROP_NEWEST, 1);
+        writer.enqueue("counter", document("a"));
+        assertTrue("Writer did not start", writing.await(5, TimeUnit.SECONDS));
+
+        writer.enqueue("counter", document("b"));
+        writer.enqueue("counter", document("c"));
+        writer.enqueue("counter", document("d"));
+
+        assertEquals("Does not keep queued documents", 2, writer.size());
+        assertEquals("Does not count dropped documents", 1, writer.dropped());
+
+        release.countDown();
+        writer.close(5, TimeUnit.SECONDS);
+        verify(collection, times(3)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    public void dropsOldestWhenFull() throws Exception {
+        final AsyncWriter writer = writer(1, 1, OverflowPolicy.DROP_OLDEST, 1);
+        writer.enqueue("counter", document("a"));
+        assertTrue("Writer did not start", writing.await(5, TimeUnit.SECONDS));
+
+        writer.enqueue("counter", document("b"));
+        writer.enqueue("counter", document("c"));
+
+        assertEquals("Does not keep queued documents", 1, writer.size());
+        assertEquals("Does not count dropped documents", 1, writer.dropped());
+        release.countDown();
+        writer.close(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void drainsQueueOnClose() {
+        release.countDown();
+        final AsyncWriter writer = writer(10, 2, OverflowPolicy.BLOCK, 5);
+        for (int i = 0; i < 10; i++) {
+            writer.enqueue("counter", document("c" + i));
+        }
+        writer.close(5, TimeUnit.SECONDS);
+        assertEquals("Does not drain queue", 0, writer.size());
+        verify(collection, timeout(5000).atLeast(2)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    private AsyncWriter writer(int queueCapacity, int writerThreads, OverflowPolicy overflowPolicy, int batchSize) {
+        return new AsyncWriter(new MetricCollections(database), DocumentLayout.DOCUMENT_PER_SAMPLE, queueCapacity,
+                writerThreads, overflowPolicy, batchSize, null, null,
+                WritePolicy.NONE);
+    }
+}
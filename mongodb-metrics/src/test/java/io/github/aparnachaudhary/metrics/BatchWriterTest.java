@@ -0,0 +1,99 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.aparnachaudhary.metrics.TestDocuments.document;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BatchWriterTest {
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<RawBsonDocument> collection = mock(MongoCollection.class);
+
+    @Before
+    public void setUp() {
+        when(database.getCollection(anyString(), eq(RawBsonDocument.class))).thenReturn(collection);
+    }
+
+    @Test
+    public void writesFullBatchesImmediately() {
+        final BatchWriter writer = writer(2);
+        writer.add("timer", document("a"));
+        verify(collection, never()).bulkWrite(anyList(), any(BulkWriteOptions.class));
+
+        writer.add("timer", document("b"));
+        writer.add("timer", document("c"));
+        verify(collection, times(1)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+
+        writer.flush();
+        verify(collection, times(2)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+
+        writer.flush();
+        verify(collection, times(2)).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    public void reportsFailedDocumentsOnly() {
+        final List<BulkWriteError> errors = Arrays.asList(new BulkWriteError(121, "document failed validation", new BsonDocument(), 1));
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(
+                new MongoBulkWriteException(BulkWriteResult.acknowledged(2, 0, 0, 0, null), errors, null, new ServerAddress()));
+
+        final BatchWriter writer = writer(10);
+        final List<RawBsonDocument> documents = new ArrayList<>();
+        documents.add(document("a"));
+        documents.add(document("b"));
+        documents.add(document("c"));
+
+        assertEquals("Does not count failed documents", 1, writer.write("timer", documents));
+        assertEquals("Does not clear written batch", 0, documents.size());
+    }
+
+    @Test
+    public void skipsDocumentsWrittenBefore() {
+        final List<BulkWriteError> errors = Arrays.asList(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0));
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(
+                new MongoBulkWriteException(BulkWriteResult.acknowledged(1, 0, 0, 0, null), errors, null, new ServerAddress()));
+
+        final List<RawBsonDocument> documents = new ArrayList<>(Arrays.asList(document("a"), document("b")));
+        assertEquals("Counts duplicate as failure", 0, writer(10).write("timer", documents));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBatches() {
+        writer(0);
+    }
+
+    private BatchWriter writer(int maxBatchSize) {
+        return new BatchWriter(new MetricCollections(database), DocumentLayout.DOCUMENT_PER_SAMPLE, maxBatchSize, null,
+                null, WritePolicy.NONE);
+    }
+}
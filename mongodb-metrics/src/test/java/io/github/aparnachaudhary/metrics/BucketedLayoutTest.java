@@ -0,0 +1,98 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.UpdateOneModel;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BucketedLayoutTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+            Collections.<String, Object>singletonMap("host", "node-1"), new MetricDocumentEncoder.Options());
+    private final BucketedLayout layout = new BucketedLayout(HOUR, MetricSchema.FULL);
+
+    @Test
+    public void upsertsCounterSamplesIntoHourBucket() {
+        final long timestamp = 10 * HOUR + 1234;
+        final UpdateOneModel<?> update = (UpdateOneModel<?>) layout.toWriteModel(MetricCollections.COUNTER,
+                encoder.encodeCounter("junit.requests", timestamp, 42L));
+
+        assertTrue("Does not upsert", update.getOptions().isUpsert());
+        assertEquals(new BsonDocument("_id", new BsonString("junit.requests@" + 10 * HOUR)), update.getFilter());
+
+        final BsonDocument changes = (BsonDocument) update.getUpdate();
+        final BsonDocument setOnInsert = changes.getDocument("$setOnInsert");
+        assertEquals("junit.requests", setOnInsert.getString("name").getValue());
+        assertEquals("Does not start bucket at hour", new BsonDateTime(10 * HOUR), setOnInsert.get("timestamp"));
+        assertEquals("Does not keep additional fields", new BsonString("node-1"), setOnInsert.get("host"));
+
+        final BsonDocument push = changes.getDocument("$push");
+        assertEquals(new BsonDateTime(timestamp), push.get(BucketedLayout.TIMESTAMPS));
+        assertEquals(new BsonInt64(42L), push.get("count"));
+        assertEquals(2, push.size());
+    }
+
+    @Test
+    public void skipsSamplesAlreadyInBucket() {
+        final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>emptyMap(), new MetricDocumentEncoder.Options().deterministicIds(true));
+        final UpdateOneModel<?> update = (UpdateOneModel<?>) layout.toWriteModel(MetricCollections.COUNTER,
+                encoder.encodeCounter("junit.requests", HOUR + 10, 1L));
+
+        final BsonDocument filter = (BsonDocument) update.getFilter();
+        assertEquals(new BsonString("junit.requests@" + HOUR), filter.get("_id"));
+        assertEquals(new BsonDocument("$ne", new BsonDateTime(HOUR + 10)), filter.get(BucketedLayout.TIMESTAMPS));
+    }
+
+    @Test
+    public void ignoresAdditionalFieldsNamedLikeBucketFields() {
+        final Map<String, Object> additionalFields = new HashMap<>();
+        additionalFields.put("timestamps", "node-1");
+        additionalFields.put("samples", 3);
+        final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                additionalFields, new MetricDocumentEncoder.Options());
+        final UpdateOneModel<?> update = (UpdateOneModel<?>) layout.toWriteModel(MetricCollections.COUNTER,
+                encoder.encodeCounter("junit.requests", HOUR, 1L));
+
+        final BsonDocument setOnInsert = ((BsonDocument) update.getUpdate()).getDocument("$setOnInsert");
+        assertFalse(setOnInsert.containsKey("timestamps"));
+        assertFalse(setOnInsert.containsKey("samples"));
+    }
+
+    @Test
+    public void pushesNestedSnapshotFields() {
+        final Timer timer = mock(Timer.class);
+        final Snapshot snapshot = mock(Snapshot.class);
+        when(snapshot.get99thPercentile()).thenReturn(9.0);
+
+        final UpdateOneModel<?> update = (UpdateOneModel<?>) layout.toWriteModel(MetricCollections.TIMER,
+                encoder.encodeTimer("junit.timer", HOUR, timer, snapshot));
+        final BsonDocument push = ((BsonDocument) update.getUpdate()).getDocument("$push");
+        assertEquals(9.0, push.getDouble("snapshot.p99").getValue(), 0.0);
+        assertTrue(push.containsKey("m1Rate"));
+    }
+}
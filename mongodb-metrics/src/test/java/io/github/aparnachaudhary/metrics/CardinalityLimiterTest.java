@@ -0,0 +1,64 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author aparna
+ */
+public class CardinalityLimiterTest {
+
+    @Test
+    public void dropsNamesOverLimitOfPrefix() {
+        final CardinalityLimiter limiter = new CardinalityLimiter(2, CardinalityPolicy.DROP);
+        assertEquals("users.1", limiter.admit("users.1"));
+        assertEquals("users.2", limiter.admit("users.2"));
+        assertNull(limiter.admit("users.3"));
+        assertEquals("Does not keep admitted name", "users.1", limiter.admit("users.1"));
+        assertEquals("Applies limit to other prefix", "jvm.threads", limiter.admit("jvm.threads"));
+        assertNull(limiter.admit("users.3"));
+
+        assertEquals(2, limiter.rejected());
+        assertEquals(Collections.singleton("users"), limiter.limitedPrefixes().keySet());
+    }
+
+    @Test
+    public void collapsesNamesOverLimitIntoOverflow() {
+        final CardinalityLimiter limiter = new CardinalityLimiter(1, CardinalityPolicy.OVERFLOW);
+        assertEquals("users.1", limiter.admit("users.1"));
+        assertEquals("users.overflow", limiter.admit("users.2"));
+        assertEquals("users.overflow", limiter.admit("users.3"));
+        assertEquals(2, limiter.rejected());
+    }
+
+    @Test
+    public void releasesNamesOfRemovedMetrics() {
+        final MetricRegistry registry = new MetricRegistry();
+        final CardinalityLimiter limiter = new CardinalityLimiter(1, CardinalityPolicy.DROP);
+        registry.addListener(limiter);
+        registry.counter("users.1");
+        assertEquals("users.1", limiter.admit("users.1"));
+        assertNull(limiter.admit("users.2"));
+
+        registry.remove("users.1");
+        assertEquals("Does not free place of removed metric", "users.2", limiter.admit("users.2"));
+    }
+
+    @Test
+    public void estimatesDistinctNamesOfLimitedPrefix() {
+        final CardinalityLimiter limiter = new CardinalityLimiter(100, CardinalityPolicy.DROP);
+        for (int i = 0; i < 20000; i++) {
+            limiter.admit("users." + i);
+            limiter.admit("users." + i % 500);
+        }
+
+        final long estimate = limiter.limitedPrefixes().get("users");
+        assertTrue("Estimate off: " + estimate, Math.abs(estimate - 20000) < 2000);
+    }
+}
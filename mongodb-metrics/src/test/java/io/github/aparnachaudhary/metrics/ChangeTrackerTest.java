@@ -0,0 +1,92 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author aparna
+ */
+public class ChangeTrackerTest {
+
+    @Test
+    public void skipsUnchangedValuesUntilHeartbeat() {
+        final ChangeTracker tracker = new ChangeTracker(3);
+        assertTrue("Does not write first value", report(tracker, "requests", 1L));
+        assertFalse(report(tracker, "requests", 1L));
+        assertFalse(report(tracker, "requests", 1L));
+        assertTrue("Does not write heartbeat", report(tracker, "requests", 1L));
+        assertFalse(report(tracker, "requests", 1L));
+        assertTrue("Does not write changed value", report(tracker, "requests", 2L));
+    }
+
+    @Test
+    public void comparesGaugeValues() {
+        final ChangeTracker tracker = new ChangeTracker(100);
+        assertTrue(report(tracker, "ratio", (Object) 0.5));
+        assertFalse(report(tracker, "ratio", (Object) 0.5));
+        assertTrue(report(tracker, "ratio", (Object) 0.75));
+
+        assertTrue(report(tracker, "status", (Object) "OK"));
+        assertFalse(report(tracker, "status", (Object) "OK"));
+        assertTrue(report(tracker, "status", (Object) "FAILED"));
+    }
+
+    @Test
+    public void comparesFractionalNumbersExactly() {
+        final ChangeTracker tracker = new ChangeTracker(100);
+        assertTrue(report(tracker, "price", (Object) new BigDecimal("1.25")));
+        assertFalse(report(tracker, "price", (Object) new BigDecimal("1.25")));
+        assertTrue("Does not write change below 1", report(tracker, "price", (Object) new BigDecimal("1.5")));
+        assertTrue(report(tracker, "threads", (Object) 5));
+        assertFalse(report(tracker, "threads", (Object) 5L));
+    }
+
+    @Test
+    public void writesAgainAfterFailedWrite() {
+        final ChangeTracker tracker = new ChangeTracker(100);
+        assertTrue(report(tracker, "requests", 1L));
+        assertTrue(tracker.changed("requests", 2L));
+        assertTrue("Does not retry failed write", tracker.changed("requests", 2L));
+        tracker.written("requests", 2L);
+        assertFalse(tracker.changed("requests", 2L));
+    }
+
+    @Test
+    public void reusesIdsOfRemovedMetrics() {
+        final MetricRegistry registry = new MetricRegistry();
+        final ChangeTracker tracker = new ChangeTracker(100);
+        registry.addListener(tracker);
+        for (int i = 0; i < 1000; i++) {
+            registry.counter("counter-" + i);
+            assertTrue(report(tracker, "counter-" + i, 0L));
+        }
+        assertEquals(1000, tracker.size());
+
+        registry.remove("counter-1");
+        assertEquals(999, tracker.size());
+        assertTrue("Does not forget removed metric", report(tracker, "counter-1", 0L));
+        assertFalse(report(tracker, "counter-2", 0L));
+    }
+
+    private static boolean report(ChangeTracker tracker, String name, long value) {
+        final boolean changed = tracker.changed(name, value);
+        if (changed) {
+            tracker.written(name, value);
+        }
+        return changed;
+    }
+
+    private static boolean report(ChangeTracker tracker, String name, Object value) {
+        final boolean changed = tracker.changed(name, value);
+        if (changed) {
+            tracker.written(name, value);
+        }
+        return changed;
+    }
+}
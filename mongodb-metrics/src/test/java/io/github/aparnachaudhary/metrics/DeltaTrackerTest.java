@@ -0,0 +1,66 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author aparna
+ */
+public class DeltaTrackerTest {
+
+    @Test
+    public void computesDeltaAndRateFromClock() {
+        final DeltaTracker tracker = new DeltaTracker();
+        tracker.startCycle(10000L);
+        DeltaTracker.Delta delta = tracker.delta("requests", 40L, true);
+        assertEquals("First reading is not whole count", 40L, delta.delta);
+        assertFalse(delta.hasRate());
+
+        tracker.startCycle(14000L);
+        delta = tracker.delta("requests", 60L, true);
+        assertEquals(20L, delta.delta);
+        assertEquals(5.0, delta.rate, 0.0);
+        assertFalse(delta.reset);
+    }
+
+    @Test
+    public void detectsResetOfMonotonicCount() {
+        final DeltaTracker tracker = new DeltaTracker();
+        tracker.startCycle(0L);
+        tracker.delta("requests", 100L, true);
+        tracker.delta("sessions", 100L, false);
+
+        tracker.startCycle(10000L);
+        final DeltaTracker.Delta reset = tracker.delta("requests", 30L, true);
+        assertTrue(reset.reset);
+        assertEquals(30L, reset.delta);
+        assertEquals(3.0, reset.rate, 0.0);
+
+        final DeltaTracker.Delta decrement = tracker.delta("sessions", 70L, false);
+        assertFalse("Decremented counter is reset", decrement.reset);
+        assertEquals(-30L, decrement.delta);
+    }
+
+    @Test
+    public void forgetsRemovedMetrics() {
+        final MetricRegistry registry = new MetricRegistry();
+        final DeltaTracker tracker = new DeltaTracker();
+        registry.addListener(tracker);
+        registry.counter("requests").inc(5);
+        tracker.startCycle(0L);
+        tracker.delta("requests", 5L, false);
+        assertEquals(1, tracker.size());
+
+        registry.remove("requests");
+        assertEquals(0, tracker.size());
+        registry.counter("requests").inc(2);
+        tracker.startCycle(1000L);
+        final DeltaTracker.Delta delta = tracker.delta("requests", 2L, false);
+        assertEquals("Does not count registered again metric from zero", 2L, delta.delta);
+        assertFalse(delta.hasRate());
+    }
+}
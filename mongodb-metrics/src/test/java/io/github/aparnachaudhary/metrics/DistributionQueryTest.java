@@ -0,0 +1,59 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DistributionQueryTest {
+
+    private final MongoCollection<Document> collection = mock(MongoCollection.class);
+
+    @Test
+    public void mergesDistributionsOfAllDocuments() {
+        final Document histogram = new Document("histogram", binary(1, 2, 3));
+        final Document timer = new Document("snapshot", new Document("histogram", binary(4)));
+        final Document bucket = new Document("snapshot",
+                new Document("histogram", Arrays.asList(binary(100), binary(200))));
+        found(histogram, timer, bucket, new Document());
+
+        final LogHistogram merged = DistributionQuery.merge(collection, new Document());
+
+        assertEquals(6, merged.getTotalCount());
+        assertEquals(1, merged.getMin());
+        assertEquals(200, merged.getMax(), 1);
+    }
+
+    private void found(Document first, Document... others) {
+        final FindIterable<Document> iterable = mock(FindIterable.class);
+        final MongoCursor<Document> cursor = mock(MongoCursor.class);
+        when(collection.find(any(Bson.class))).thenReturn(iterable);
+        when(iterable.projection(any(Bson.class))).thenReturn(iterable);
+        when(iterable.iterator()).thenReturn(cursor);
+        final Boolean[] more = new Boolean[others.length + 1];
+        Arrays.fill(more, true);
+        more[others.length] = false;
+        when(cursor.hasNext()).thenReturn(true, more);
+        when(cursor.next()).thenReturn(first, others);
+    }
+
+    private static Binary binary(long... values) {
+        return new Binary(LogHistogram.of(values).toByteArray());
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Gauge;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author aparna
+ */
+public class GaugeEvaluatorTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void evaluatesEachGaugeOnce() {
+        final AtomicInteger calls = new AtomicInteger();
+        final Map<String, Gauge> gauges = new TreeMap<>();
+        gauges.put("junit.calls", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return calls.incrementAndGet();
+            }
+        });
+        gauges.put("junit.null", constant(null));
+        gauges.put("junit.failing", new Gauge<Object>() {
+            @Override
+            public Object getValue() {
+                throw new IllegalStateException("junit");
+            }
+        });
+
+        final Map<String, Object> values = new GaugeEvaluator(null, 1, TimeUnit.SECONDS).evaluate(gauges);
+
+        assertEquals(1, calls.get());
+        assertEquals(1, values.get("junit.calls"));
+        assertEquals(1, values.size());
+    }
+
+    @Test
+    public void skipsGaugesExceedingTimeout() {
+        final Map<String, Gauge> gauges = new TreeMap<>();
+        gauges.put("junit.a", constant("a"));
+        gauges.put("junit.b", new Gauge<String>() {
+            @Override
+            public String getValue() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "b";
+            }
+        });
+        gauges.put("junit.c", constant("c"));
+
+        final long start = System.nanoTime();
+        final Map<String, Object> values = new GaugeEvaluator(executor, 100, TimeUnit.MILLISECONDS).evaluate(gauges);
+
+        assertTrue("Waits longer than timeout", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(Arrays.asList("junit.a", "junit.c"), Arrays.asList(values.keySet().toArray()));
+    }
+
+    @Test
+    public void startsTimeoutOfQueuedGaugeWhenItRuns() {
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            final Map<String, Gauge> gauges = new TreeMap<>();
+            for (String name : Arrays.asList("junit.a", "junit.b", "junit.c", "junit.d")) {
+                gauges.put(name, sleeping(name, 80));
+            }
+
+            final Map<String, Object> values = new GaugeEvaluator(single, 200, TimeUnit.MILLISECONDS).evaluate(gauges);
+
+            assertEquals("Skips gauge queued behind others", gauges.keySet(), values.keySet());
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    private static Gauge<Object> sleeping(final Object value, final long millis) {
+        return new Gauge<Object>() {
+            @Override
+            public Object getValue() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return value;
+            }
+        };
+    }
+
+    private static Gauge<Object> constant(final Object value) {
+        return new Gauge<Object>() {
+            @Override
+            public Object getValue() {
+                return value;
+            }
+        };
+    }
+}
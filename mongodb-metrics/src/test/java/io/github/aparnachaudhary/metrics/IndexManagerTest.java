@@ -0,0 +1,120 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class IndexManagerTest {
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<RawBsonDocument> collection = mock(MongoCollection.class);
+
+    @Before
+    public void setUp() {
+        when(database.getCollection(anyString(), eq(RawBsonDocument.class))).thenReturn(collection);
+        when(collection.getNamespace()).thenReturn(new MongoNamespace("metricstore", "counter"));
+    }
+
+    @Test
+    public void createsMissingIndexes() {
+        existingIndexes(index("_id_", new Document("_id", 1)));
+
+        manager(TimeUnit.DAYS.toSeconds(7)).ensureIndexes(collection);
+
+        verify(collection).createIndex(eq(new Document("name", 1).append("timestamp", 1)), any(IndexOptions.class));
+        final ArgumentCaptor<IndexOptions> options = ArgumentCaptor.forClass(IndexOptions.class);
+        verify(collection).createIndex(eq(new Document("timestamp", 1)), options.capture());
+        assertEquals(Long.valueOf(TimeUnit.DAYS.toSeconds(7)), options.getValue().getExpireAfter(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void changesRetentionOfExistingTtlIndex() {
+        existingIndexes(index("name_timestamp", new Document("name", 1).append("timestamp", 1.0)),
+                index(IndexManager.TTL_INDEX, new Document("timestamp", 1)).append("expireAfterSeconds", 60));
+
+        manager(120L).ensureIndexes(collection);
+
+        verify(collection, never()).createIndex(any(Bson.class), any(IndexOptions.class));
+        final ArgumentCaptor<Bson> command = ArgumentCaptor.forClass(Bson.class);
+        verify(database).runCommand(command.capture());
+        final Document collMod = (Document) command.getValue();
+        assertEquals("counter", collMod.get("collMod"));
+        assertEquals(120L, ((Document) collMod.get("index")).get("expireAfterSeconds"));
+    }
+
+    @Test
+    public void dropsTtlIndexOnceRetentionIsDisabled() {
+        existingIndexes(index(IndexManager.TTL_INDEX, new Document("timestamp", 1)).append("expireAfterSeconds", 60));
+
+        manager(null).ensureIndexes(collection);
+
+        verify(collection).dropIndex(IndexManager.TTL_INDEX);
+    }
+
+    @Test
+    public void replacesTagIndexWithChangedTags() {
+        existingIndexes(index("name_timestamp", new Document("name", 1).append("timestamp", 1)),
+                index(IndexManager.NAME_TAGS_TIMESTAMP_INDEX,
+                        new Document("n", 1).append("tg.status", 1).append("t", 1)));
+
+        new IndexManager(new MetricCollections(database), Collections.singletonList(MetricCollections.COUNTER), null,
+                MetricSchema.COMPACT, Arrays.asList("status", "uri")).ensureIndexes(collection);
+
+        verify(collection).dropIndex(IndexManager.NAME_TAGS_TIMESTAMP_INDEX);
+        verify(collection).createIndex(eq(new Document("n", 1).append("tg.status", 1).append("tg.uri", 1)
+                .append("t", 1)), any(IndexOptions.class));
+    }
+
+    private IndexManager manager(Long retentionSeconds) {
+        return new IndexManager(new MetricCollections(database), Collections.singletonList(MetricCollections.COUNTER),
+                retentionSeconds, MetricSchema.FULL, Collections.<String>emptyList());
+    }
+
+    private void existingIndexes(final Document... indexes) {
+        final ListIndexesIterable<Document> iterable = mock(ListIndexesIterable.class);
+        when(collection.listIndexes()).thenReturn(iterable);
+        when(iterable.into(any(Collection.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final List<Document> target = (List<Document>) invocation.getArguments()[0];
+                target.addAll(Arrays.asList(indexes));
+                return target;
+            }
+        });
+    }
+
+    private static Document index(String name, Document keys) {
+        return new Document("v", 1).append("key", keys).append("name", name);
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.aparnachaudhary.metrics;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author aparna
+ */
+public class KeyValueNameParserTest {
+
+    private final KeyValueNameParser parser = new KeyValueNameParser();
+
+    @Test
+    public void splitsTagsFromName() {
+        final Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("status", "500");
+        tags.put("uri", "/api/x");
+        assertEquals(new TaggedName("http.server.requests", tags),
+                parser.parse("http.server.requests.status=500.uri=/api/x"));
+    }
+
+    @Test
+    public void keepsDotsInTagValues() {
+        final TaggedName tagged = parser.parse("db.queries.host=db1.example.com.op=find");
+        assertEquals("db.queries", tagged.getName());
+        assertEquals("db1.example.com", tagged.getTags().get("host"));
+        assertEquals("find", tagged.getTags().get("op"));
+    }
+
+    @Test
+    public void leavesNamesWithoutTags() {
+        assertNull(parser.parse("jvm.threads.count"));
+        assertNull("Does not require base name", parser.parse("status=500"));
+    }
+}
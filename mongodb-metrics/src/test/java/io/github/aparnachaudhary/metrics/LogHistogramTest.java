@@ -0,0 +1,51 @@
+package io.github.aparnachaudhary.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author aparna
+ */
+public class LogHistogramTest {
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (long value : new long[] { 0, 1, 127, 128, 129, 255, 256, 1000, 123456789L, Long.MAX_VALUE }) {
+            final int index = LogHistogram.indexOf(value);
+            assertTrue("Bucket does not contain " + value, LogHistogram.lowestValue(index) <= value);
+            assertTrue("Bucket does not contain " + value, LogHistogram.highestValue(index) >= value);
+        }
+        assertEquals(LogHistogram.highestValue(LogHistogram.indexOf(255)) + 1,
+                LogHistogram.lowestValue(LogHistogram.indexOf(256)));
+    }
+
+    @Test
+    public void mergesDistributionsOfSeveralNodes() {
+        final long[] first = new long[1000];
+        final long[] second = new long[1000];
+        for (int i = 0; i < 1000; i++) {
+            first[i] = i + 1;
+            second[i] = 100000 + i;
+        }
+        final LogHistogram merged = LogHistogram.of(first);
+        merged.merge(LogHistogram.of(second));
+
+        assertEquals(2000, merged.getTotalCount());
+        assertEquals(1000, merged.getValueAtQuantile(0.5), 10);
+        assertEquals(100980, merged.getValueAtQuantile(0.99), 1000);
+        assertEquals(1, merged.getMin());
+        assertEquals(100999, merged.getMax(), 1000);
+    }
+
+    @Test
+    public void roundTripsEncoding() {
+        final LogHistogram histogram = LogHistogram.of(new long[] { 3, 3, 500, 7000000000L });
+        final LogHistogram decoded = LogHistogram.fromByteArray(histogram.toByteArray());
+
+        assertEquals(4, decoded.getTotalCount());
+        assertEquals(histogram.getValueAtQuantile(0.5), decoded.getValueAtQuantile(0.5));
+        assertEquals(histogram.getMax(), decoded.getMax());
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
+import com.mongodb.MongoClient;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static io.github.aparnachaudhary.metrics.TestDocuments.decode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MetricDocumentEncoderTest {
+
+    private final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+            Collections.<String, Object>singletonMap("host", "node-1"), new MetricDocumentEncoder.Options());
+
+    @Test
+    public void encodesTimers() {
+        final Timer timer = mock(Timer.class);
+        when(timer.getCount()).thenReturn(1L);
+        when(timer.getMeanRate()).thenReturn(2.0);
+        when(timer.getOneMinuteRate()).thenReturn(3.0);
+        when(timer.getFiveMinuteRate()).thenReturn(4.0);
+        when(timer.getFifteenMinuteRate()).thenReturn(5.0);
+
+        final Snapshot snapshot = mock(Snapshot.class);
+        when(snapshot.getMax()).thenReturn(100L);
+        when(snapshot.getMean()).thenReturn(200.0);
+        when(snapshot.getMin()).thenReturn(300L);
+        when(snapshot.get999thPercentile()).thenReturn(1000.0);
+
+        final Document value = decode(encoder.encodeTimer("junit.timer", 1000L, timer, snapshot));
+
+        assertEquals("Does not save correct name", "junit.timer", value.get("name"));
+        assertEquals("Does not save correct timestamp", new Date(1000L), value.get("timestamp"));
+        assertEquals("Does not have correct count", 1L, value.get("count"));
+        assertEquals("Does not have correct one minute rate", 3.0, value.get("m1Rate"));
+        assertEquals("Does not have correct mean rate", 2.0, value.get("meanRate"));
+        assertEquals("Does not add additional fields", "node-1", value.get("host"));
+
+        final Document reportedSnapshot = (Document) value.get("snapshot");
+        assertEquals("Does not have correct max", 100L, reportedSnapshot.get("max"));
+        assertEquals("Does not have correct mean", 200.0, reportedSnapshot.get("mean"));
+        assertEquals("Does not have correct min", 300L, reportedSnapshot.get("min"));
+        assertEquals("Does not have correct p999", 1000.0, reportedSnapshot.get("p999"));
+    }
+
+    @Test
+    public void encodesGaugeValues() {
+        assertEquals("OK", decode(encoder.encodeGauge("junit.status", 0L, "OK")).get("value"));
+        assertEquals(1.5, decode(encoder.encodeGauge("junit.ratio", 0L, 1.5)).get("value"));
+        assertNotEquals(Byte.class, decode(encoder.encodeGauge("junit.byte", 0L, (byte) 1)).get("value").getClass());
+        assertEquals(Arrays.asList(1, 2), decode(encoder.encodeGauge("junit.list", 0L, Arrays.asList(1, 2))).get("value"));
+
+        final Map<String, Object> map = new HashMap<>();
+        map.put("used", 10L);
+        assertEquals(new Document("used", 10L), decode(encoder.encodeGauge("junit.map", 0L, map)).get("value"));
+    }
+
+    @Test
+    public void doesNotOverrideMetricFields() {
+        final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>singletonMap("count", "custom"), new MetricDocumentEncoder.Options());
+        assertEquals(5L, decode(encoder.encodeCounter("junit.counter", 0L, 5L)).get("count"));
+    }
+
+    @Test
+    public void addsMergeableDistribution() {
+        final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>emptyMap(), new MetricDocumentEncoder.Options().distributions(true));
+        final Document value = decode(encoder.encodeHistogram("junit.histogram", 0L, 3L,
+                new UniformSnapshot(new long[] { 1, 2, 3 })));
+
+        final LogHistogram histogram = LogHistogram.fromByteArray(((Binary) value.get("histogram")).getData());
+        assertEquals(3, histogram.getTotalCount());
+        assertEquals(3, histogram.getMax());
+    }
+
+    @Test
+    public void derivesIdFromNameAndTimestamp() {
+        final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>emptyMap(), new MetricDocumentEncoder.Options().deterministicIds(true));
+        assertEquals("junit.counter@60000", decode(encoder.encodeCounter("junit.counter", 60000L, 1L)).get("_id"));
+    }
+
+    @Test
+    public void leavesOutDisabledAttributes() {
+        final EnumSet<MetricAttribute> disabled = EnumSet.complementOf(EnumSet.of(MetricAttribute.P50,
+                MetricAttribute.P99, MetricAttribute.M1_RATE));
+        final MetricDocumentEncoder encoder = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>emptyMap(), new MetricDocumentEncoder.Options().disabledAttributes(
+                        Collections.<String, Set<MetricAttribute>>singletonMap(MetricCollections.TIMER, disabled)));
+        final Timer timer = mock(Timer.class);
+        final Snapshot snapshot = mock(Snapshot.class);
+        when(timer.getOneMinuteRate()).thenReturn(3.0);
+        when(snapshot.getMedian()).thenReturn(50.0);
+        when(snapshot.get99thPercentile()).thenReturn(99.0);
+
+        final Document value = decode(encoder.encodeTimer("junit.timer", 0L, timer, snapshot));
+
+        assertEquals(new Document("median", 50.0).append("p99", 99.0), value.get("snapshot"));
+        assertEquals(3.0, value.get("m1Rate"));
+        assertFalse(value.containsKey("count"));
+        assertFalse(value.containsKey("meanRate"));
+        verify(snapshot, never()).getStdDev();
+        assertTrue(encoder.needsSnapshot(MetricCollections.HISTOGRAM));
+        assertTrue(encoder.needsSnapshot(MetricCollections.TIMER));
+    }
+
+    @Test
+    public void splitsTagsFromName() {
+        final MetricDocumentEncoder tagging = new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>emptyMap(), new MetricDocumentEncoder.Options()
+                        .deterministicIds(true)
+                        .taggedNames(new MetricNameCache(null, new KeyValueNameParser())));
+
+        final Document value = decode(tagging.encodeCounter("http.requests.status=500.uri=/api/x", 0L, 3L));
+
+        assertEquals("http.requests", value.get("name"));
+        assertEquals(new Document("status", "500").append("uri", "/api/x"), value.get("tags"));
+        assertEquals("Does not keep tags in id", "http.requests.status=500.uri=/api/x@0", value.get("_id"));
+    }
+}
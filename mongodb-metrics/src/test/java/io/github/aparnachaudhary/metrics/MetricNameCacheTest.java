@@ -0,0 +1,59 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author aparna
+ */
+public class MetricNameCacheTest {
+
+    @Test
+    public void cachesPrefixedNames() {
+        final MetricNameCache cache = new MetricNameCache("junit");
+        final String name = cache.prefixed("requests");
+        assertEquals("Does not prefix name", "junit.requests", name);
+        assertSame("Does not reuse prefixed name", name, cache.prefixed("requests"));
+    }
+
+    @Test
+    public void evictsRemovedMetrics() {
+        final MetricRegistry registry = new MetricRegistry();
+        final MetricNameCache cache = new MetricNameCache("junit");
+        registry.addListener(cache);
+
+        registry.counter("requests");
+        registry.timer("latency");
+        cache.prefixed("requests");
+        cache.prefixed("latency");
+        assertEquals(2, cache.size());
+
+        registry.remove("requests");
+        assertEquals("Does not evict removed metric", 1, cache.size());
+    }
+
+    @Test
+    public void parsesNamesOnce() {
+        final MetricRegistry registry = new MetricRegistry();
+        final MetricNameCache cache = new MetricNameCache("junit", new KeyValueNameParser());
+        registry.addListener(cache);
+
+        registry.counter("requests.status=500");
+        final TaggedName tagged = cache.parsed(cache.prefixed("requests.status=500"));
+        assertEquals("junit.requests", tagged.getName());
+        assertSame("Does not reuse parsed name", tagged, cache.parsed("junit.requests.status=500"));
+
+        registry.remove("requests.status=500");
+        assertEquals("Does not evict removed metric", 0, cache.parsedSize());
+    }
+
+    @Test
+    public void skipsCacheWithoutPrefix() {
+        final MetricNameCache cache = new MetricNameCache(null);
+        assertEquals("requests", cache.prefixed("requests"));
+        assertEquals(0, cache.size());
+    }
+}
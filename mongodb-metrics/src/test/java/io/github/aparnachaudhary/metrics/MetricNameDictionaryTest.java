@@ -0,0 +1,62 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MetricNameDictionaryTest {
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<Document> collection = mock(MongoCollection.class);
+    private final FindIterable<Document> byName = mock(FindIterable.class);
+    private final FindIterable<Document> all = mock(FindIterable.class);
+
+    @Before
+    public void setUp() {
+        when(database.getCollection(MetricNameDictionary.COLLECTION_NAME)).thenReturn(collection);
+        when(collection.find(any(Bson.class))).thenReturn(byName);
+        when(collection.find()).thenReturn(all);
+        when(all.sort(any(Bson.class))).thenReturn(all);
+    }
+
+    @Test
+    public void assignsNextIdOnce() {
+        when(all.first()).thenReturn(new Document("_id", 4).append("name", "junit.other"));
+        final MetricNameDictionary names = new MetricNameDictionary(database);
+
+        assertEquals(5, names.idOf("junit.counter"));
+        assertEquals(5, names.idOf("junit.counter"));
+        assertEquals(6, names.idOf("junit.timer"));
+
+        verify(collection).insertOne(new Document("_id", 5).append("name", "junit.counter"));
+        verify(collection).insertOne(new Document("_id", 6).append("name", "junit.timer"));
+        verify(collection, times(2)).insertOne(any(Document.class));
+    }
+
+    @Test
+    public void reusesRegisteredId() {
+        when(byName.first()).thenReturn(new Document("_id", 2).append("name", "junit.counter"));
+        final MetricNameDictionary names = new MetricNameDictionary(database);
+
+        assertEquals(2, names.idOf("junit.counter"));
+        assertEquals("junit.counter", names.nameOf(2));
+        verify(collection, times(0)).insertOne(any(Document.class));
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
+import com.mongodb.MongoClient;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collections;
+
+import static io.github.aparnachaudhary.metrics.TestDocuments.decode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MetricSchemaTest {
+
+    @Test
+    public void translatesFieldNames() {
+        assertEquals("s.p99", MetricSchema.COMPACT.field("snapshot.p99"));
+        assertEquals("host", MetricSchema.COMPACT.field("host"));
+        assertEquals("snapshot.p99", MetricSchema.FULL.field("snapshot.p99"));
+    }
+
+    @Test
+    public void decodesCompactDocuments() {
+        final Timer timer = mock(Timer.class);
+        when(timer.getCount()).thenReturn(3L);
+        when(timer.getMeanRate()).thenReturn(0.5);
+        final UniformSnapshot snapshot = new UniformSnapshot(new long[] { 1, 2, 3 });
+
+        final RawBsonDocument full = encoder(MetricSchema.FULL, null).encodeTimer("junit.timer", 1000L, timer, snapshot);
+        final RawBsonDocument compact = encoder(MetricSchema.COMPACT, null)
+                .encodeTimer("junit.timer", 1000L, timer, snapshot);
+
+        assertTrue("Compact document is not smaller", compact.getByteBuffer().remaining()
+                < full.getByteBuffer().remaining());
+        assertEquals(decode(full), MetricSchema.COMPACT.decode(decode(compact), null));
+    }
+
+    @Test
+    public void resolvesMetricNameIds() {
+        final MetricNameDictionary names = mock(MetricNameDictionary.class);
+        when(names.idOf("junit.counter")).thenReturn(7);
+        when(names.nameOf(7)).thenReturn("junit.counter");
+
+        final Document stored = decode(encoder(MetricSchema.COMPACT, names).encodeCounter("junit.counter", 0L, 1L));
+
+        assertEquals(7, stored.get("n"));
+        assertEquals("junit.counter", MetricSchema.COMPACT.decode(stored, names).get("name"));
+    }
+
+    private static MetricDocumentEncoder encoder(MetricSchema schema, MetricNameDictionary names) {
+        return new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(),
+                Collections.<String, Object>singletonMap("host", "node-1"),
+                new MetricDocumentEncoder.Options().schema(schema).names(names));
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import org.bson.RawBsonDocument;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.aparnachaudhary.metrics.TestDocuments.document;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MetricSpoolTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<RawBsonDocument> collection = mock(MongoCollection.class);
+
+    @Before
+    public void setUp() {
+        when(database.getCollection(anyString(), eq(RawBsonDocument.class))).thenReturn(collection);
+    }
+
+    @Test
+    public void replaysSpooledDocumentsOnceReachable() throws Exception {
+        final List<Integer> written = new ArrayList<>();
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenThrow(new MongoSocketException("unreachable", new ServerAddress()))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        written.add(((List<?>) invocation.getArguments()[0]).size());
+                        return null;
+                    }
+                });
+        final MetricSpool spool = spool(folder.getRoot());
+        spool.append("counter", Arrays.asList(document("a"), document("b")));
+        spool.append("timer", Arrays.asList(document("c")));
+
+        spool.replay();
+        assertEquals("Does not keep segment while unreachable", 1, spool.segments());
+
+        spool.replay();
+        assertEquals("Does not delete replayed segment", 0, spool.segments());
+        assertEquals("Does not delete segment file", 0, folder.getRoot().listFiles().length);
+
+        assertEquals("Does not replay all documents", Arrays.asList(2, 1), written);
+        spool.close();
+    }
+
+    @Test
+    public void recoversSegmentsOfPreviousRun() throws Exception {
+        final MetricSpool first = spool(folder.getRoot());
+        first.append("gauge", Arrays.asList(document("a")));
+        first.close();
+
+        final MetricSpool second = spool(folder.getRoot());
+        assertEquals("Does not recover segment", 1, second.segments());
+        second.append("gauge", Arrays.asList(document("b")));
+        assertEquals(2, second.segments());
+        second.close();
+    }
+
+    @Test
+    public void discardsOldestSegmentsWhenFull() throws Exception {
+        final MetricSpool spool = new MetricSpool(folder.getRoot(), 1024, 2048, 1000, 1, TimeUnit.HOURS,
+                new MetricCollections(database), DocumentLayout.DOCUMENT_PER_SAMPLE, WritePolicy.NONE);
+        final List<RawBsonDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            documents.add(document("metric-" + i));
+        }
+        spool.append("counter", documents);
+        assertEquals("Does not cap segments", 2, spool.segments());
+        assertEquals(2, folder.getRoot().listFiles().length);
+        spool.close();
+    }
+
+    @Test
+    public void limitsSizeOfTruncatedSegmentsInBytes() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            final MetricSpool run = new MetricSpool(folder.getRoot(), 1024, 4096, 1000, 1, TimeUnit.HOURS,
+                    new MetricCollections(database), DocumentLayout.DOCUMENT_PER_SAMPLE, WritePolicy.NONE);
+            run.append("counter", Arrays.asList(document("metric-" + i)));
+            run.close();
+        }
+        final MetricSpool spool = new MetricSpool(folder.getRoot(), 1024, 4096, 1000, 1, TimeUnit.HOURS,
+                new MetricCollections(database), DocumentLayout.DOCUMENT_PER_SAMPLE, WritePolicy.NONE);
+        spool.append("counter", Arrays.asList(document("metric-5")));
+
+        assertEquals("Discards small segments within size limit", 0, spool.discarded());
+        assertEquals(6, spool.segments());
+        spool.close();
+    }
+
+    private MetricSpool spool(File directory) throws Exception {
+        return new MetricSpool(directory, 64 * 1024, 1024 * 1024, 10000, 1, TimeUnit.HOURS,
+                new MetricCollections(database), DocumentLayout.DOCUMENT_PER_SAMPLE, WritePolicy.NONE);
+    }
+}
@@ -0,0 +1,316 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.ListIndexesIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertOneModel;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests of {@link MongoDBReporter} against a mocked database.
+ *
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MongoDBReporterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<RawBsonDocument> collection = mock(MongoCollection.class);
+    private final Clock clock = mock(Clock.class);
+    private final MetricRegistry registry = new MetricRegistry();
+    private final List<RawBsonDocument> written = Collections.synchronizedList(new ArrayList<RawBsonDocument>());
+
+    @Before
+    public void setUp() {
+        when(database.getCollection(anyString(), eq(RawBsonDocument.class))).thenReturn(collection);
+        when(database.getCodecRegistry()).thenReturn(MongoClient.getDefaultCodecRegistry());
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (Object request : (List<?>) invocation.getArguments()[0]) {
+                    written.add((RawBsonDocument) ((InsertOneModel<?>) request).getDocument());
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void alignsIdempotentWritesToPeriod() {
+        registry.counter("junit.counter").inc();
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withClock(clock)
+                .withBatchSize(10)
+                .withIdempotentWrites(true)
+                .build();
+        reporter.start(1, TimeUnit.HOURS);
+        try {
+            when(clock.getTime()).thenReturn(10003L, 19998L, 20001L);
+            reporter.report();
+            reporter.report();
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        final List<String> ids = new ArrayList<>();
+        for (RawBsonDocument document : written) {
+            ids.add(document.getString("_id").getValue());
+        }
+        assertEquals(Arrays.asList("junit.counter@0", "junit.counter@0", "junit.counter@0"), ids);
+    }
+
+    @Test
+    public void keepsOpenRollupWindowsWithIdempotentWrites() {
+        registry.counter("junit.counter").inc();
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withClock(clock)
+                .withBatchSize(10)
+                .withIdempotentWrites(true)
+                .withRollup(1, TimeUnit.MINUTES)
+                .build();
+        when(clock.getTime()).thenReturn(10003L);
+        reporter.report();
+        reporter.stop();
+
+        assertEquals("Writes partial window with the _id of the whole window", 1, written.size());
+    }
+
+    @Test
+    public void movesLateCycleToNextPeriod() {
+        registry.counter("junit.counter").inc();
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withClock(clock)
+                .withBatchSize(10)
+                .withIdempotentWrites(true)
+                .build();
+        reporter.start(10, TimeUnit.SECONDS);
+        try {
+            when(clock.getTime()).thenReturn(19999L, 30001L, 39998L);
+            reporter.report();
+            reporter.report();
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        assertEquals(10000L, written.get(0).getDateTime("timestamp").getValue());
+        assertEquals(30000L, written.get(1).getDateTime("timestamp").getValue());
+        assertEquals("Reuses timestamp of previous cycle", 40000L, written.get(2).getDateTime("timestamp").getValue());
+    }
+
+    @Test
+    public void reportsTiersWhenDue() {
+        registry.counter("junit.requests").inc();
+        registry.counter("jvm.threads").inc();
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withClock(clock)
+                .withBatchSize(10)
+                .withTier(Pattern.compile("^jvm\\."), 30, TimeUnit.SECONDS)
+                .build();
+        reporter.start(10, TimeUnit.SECONDS);
+        try {
+            when(clock.getTime()).thenReturn(0L, 0L, 10000L, 10000L, 20000L, 20000L, 30000L, 30000L);
+            reporter.report();
+            reporter.report();
+            reporter.report();
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        final List<String> names = new ArrayList<>();
+        for (RawBsonDocument document : written) {
+            names.add(document.getString("name").getValue());
+        }
+        assertEquals(Arrays.asList("junit.requests", "jvm.threads", "junit.requests", "junit.requests", "junit.requests",
+                "jvm.threads"), names);
+    }
+
+    @Test
+    public void skipsSnapshotWithoutSnapshotAttributes() {
+        final Timer timer = mock(Timer.class);
+        when(timer.getCount()).thenReturn(5L);
+        registry.register("junit.timer", timer);
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withClock(clock)
+                .withBatchSize(10)
+                .disabledMetricAttributes(Timer.class, EnumSet.range(MetricAttribute.MAX, MetricAttribute.P999))
+                .build();
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        verify(timer, never()).getSnapshot();
+        assertEquals(5L, written.get(0).getInt64("count").getValue());
+        assertFalse(written.get(0).containsKey("snapshot"));
+    }
+
+    @Test
+    public void writesCollectionsConcurrently() {
+        final MongoCollection<RawBsonDocument> timers = mock(MongoCollection.class);
+        when(database.getCollection(eq(MetricCollections.TIMER), eq(RawBsonDocument.class))).thenReturn(timers);
+        when(timers.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(new MongoException("junit"));
+        registry.counter("junit.counter").inc();
+        registry.histogram("junit.histogram").update(1);
+        registry.meter("junit.meter").mark();
+        registry.timer("junit.timer").update(1, TimeUnit.MILLISECONDS);
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withClock(clock)
+                .withBatchSize(10)
+                .withCollectionExecutor(executor)
+                .build();
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+            executor.shutdown();
+        }
+
+        assertEquals(3, written.size());
+        final ReportOutcome outcome = reporter.getLastOutcome();
+        assertFalse(outcome.isSuccessful());
+        assertEquals(1, outcome.getFailedDocuments(MetricCollections.TIMER));
+        assertEquals(0, outcome.getFailedDocuments(MetricCollections.COUNTER));
+        assertTrue(outcome.getErrors().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOverflowWithIdempotentWrites() {
+        MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withIdempotentWrites(true)
+                .withCardinalityLimit(10, CardinalityPolicy.OVERFLOW)
+                .build();
+    }
+
+    @Test
+    public void connectsLazily() {
+        registry.counter("junit.counter").inc();
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .serverAddresses(new ServerAddress[] { new ServerAddress("localhost", 1) })
+                .mongoClientOptions(MongoClientOptions.builder().serverSelectionTimeout(100).build())
+                .withLazyConnection(true)
+                .build();
+        try {
+            assertFalse(reporter.isReady());
+            reporter.start(1, TimeUnit.HOURS);
+            reporter.report();
+            assertFalse(reporter.isReady());
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void doesNotSpoolNamesInsteadOfIdsBeforeConnected() throws Exception {
+        registry.counter("junit.counter").inc();
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .serverAddresses(new ServerAddress[] { new ServerAddress("localhost", 1) })
+                .mongoClientOptions(MongoClientOptions.builder().serverSelectionTimeout(100).build())
+                .withLazyConnection(true)
+                .withSpool(folder.newFolder())
+                .withNameDictionary(true)
+                .build();
+        try {
+            reporter.report();
+            assertNull("Reports before name ids are known", reporter.getLastOutcome());
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void keepsRollupsWithoutRetention() {
+        final MongoCollection<RawBsonDocument> rollup = mock(MongoCollection.class);
+        when(database.getCollection(eq(MetricCollections.COUNTER + "_1m"), eq(RawBsonDocument.class)))
+                .thenReturn(rollup);
+        noIndexes(collection);
+        noIndexes(rollup);
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withRetention(1, TimeUnit.DAYS)
+                .withRollup(1, TimeUnit.MINUTES)
+                .build();
+        reporter.start(1, TimeUnit.HOURS);
+        try {
+            final Document timestamp = new Document("timestamp", 1);
+            verify(collection, timeout(2000).atLeastOnce()).createIndex(eq(timestamp), any(IndexOptions.class));
+            verify(rollup, timeout(2000).atLeastOnce()).createIndex(eq(new Document("name", 1).append("timestamp", 1)),
+                    any(IndexOptions.class));
+            verify(rollup, after(200).never()).createIndex(eq(timestamp), any(IndexOptions.class));
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void noIndexes(MongoCollection<RawBsonDocument> collection) {
+        final ListIndexesIterable<Document> indexes = mock(ListIndexesIterable.class);
+        when(collection.listIndexes()).thenReturn(indexes);
+        when(indexes.into(any(Collection.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return invocation.getArguments()[0];
+            }
+        });
+        when(collection.getNamespace()).thenReturn(new MongoNamespace("metricstore", "junit"));
+    }
+}
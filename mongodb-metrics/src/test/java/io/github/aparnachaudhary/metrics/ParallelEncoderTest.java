@@ -0,0 +1,73 @@
+package io.github.aparnachaudhary.metrics;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link ParallelEncoder}.
+ *
+ * @author aparna
+ */
+public class ParallelEncoderTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void keepsOrderOfMetrics() {
+        final Map<String, Integer> metrics = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            metrics.put(String.format("junit.metric%03d", i), i);
+        }
+
+        final List<RawBsonDocument> documents = new ParallelEncoder(pool, 7).encode(metrics, new Encoding());
+
+        final List<String> names = new ArrayList<>();
+        for (RawBsonDocument document : documents) {
+            names.add(document.getString("name").getValue());
+        }
+        assertEquals(new ArrayList<>(metrics.keySet()), names);
+        assertEquals(42, documents.get(42).getInt32("value").getValue());
+    }
+
+    @Test
+    public void encodesSingleChunkOnCallingThread() {
+        final Map<String, Integer> metrics = new TreeMap<>();
+        metrics.put("junit.a", 1);
+        metrics.put("junit.b", 2);
+
+        final List<RawBsonDocument> documents = new ParallelEncoder(pool, 2).encode(metrics, new Encoding());
+
+        for (RawBsonDocument document : documents) {
+            assertEquals(Thread.currentThread().getName(), document.getString("thread").getValue());
+        }
+    }
+
+    private static final class Encoding implements ParallelEncoder.Encoding<Integer> {
+
+        @Override
+        public RawBsonDocument encode(String name, Integer metric) {
+            final BsonDocument document = new BsonDocument("name", new BsonString(name))
+                    .append("value", new BsonInt32(metric))
+                    .append("thread", new BsonString(Thread.currentThread().getName()));
+            return new RawBsonDocument(document, new BsonDocumentCodec());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author aparna
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ReporterMetricsTest {
+
+    private final MongoDatabase database = mock(MongoDatabase.class);
+    private final MongoCollection<RawBsonDocument> collection = mock(MongoCollection.class);
+    private final MetricRegistry registry = new MetricRegistry();
+    private final MetricRegistry selfMetrics = new MetricRegistry();
+
+    @Before
+    public void setUp() {
+        when(database.getCollection(anyString(), eq(RawBsonDocument.class))).thenReturn(collection);
+        when(database.getCodecRegistry()).thenReturn(MongoClient.getDefaultCodecRegistry());
+    }
+
+    @Test
+    public void recordsCycleAndWrites() {
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(null)
+                .thenThrow(new MongoBulkWriteException(mock(BulkWriteResult.class),
+                        Collections.singletonList(new BulkWriteError(121, "invalid", new BsonDocument(), 0)),
+                        null, new ServerAddress()));
+        registry.counter("junit.counter").inc();
+        registry.timer("junit.timer").update(1, TimeUnit.SECONDS);
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withBatchSize(10)
+                .withSelfMetrics(selfMetrics)
+                .build();
+
+        reporter.report();
+
+        assertEquals(1, selfMetrics.timer("mongodb-reporter.cycle").getCount());
+        assertEquals(1, selfMetrics.timer("mongodb-reporter.write.counter").getCount());
+        assertEquals(1, selfMetrics.timer("mongodb-reporter.write.timer").getCount());
+        assertEquals(1, selfMetrics.meter("mongodb-reporter.documents.written").getCount());
+        assertEquals(1, selfMetrics.meter("mongodb-reporter.documents.failed").getCount());
+        assertTrue(selfMetrics.meter("mongodb-reporter.bytes").getCount() > 0);
+
+        reporter.stop();
+        assertFalse("Does not remove metrics on stop", selfMetrics.getNames().contains("mongodb-reporter.cycle"));
+    }
+
+    @Test
+    public void registersQueueGauges() {
+        final MongoDBReporter reporter = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withAsyncWrites(100)
+                .withSelfMetrics(registry)
+                .build();
+
+        assertEquals(0, registry.getGauges().get("mongodb-reporter.queue.depth").getValue());
+        reporter.stop();
+        assertTrue(registry.getNames().isEmpty());
+    }
+
+    @Test
+    public void separatesMetricsOfNamedReporters() {
+        final MongoDBReporter first = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withSelfMetrics(selfMetrics, "first")
+                .build();
+        final MongoDBReporter second = MongoDBReporter.forRegistry(registry)
+                .withDatabase(database)
+                .withSelfMetrics(selfMetrics, "second")
+                .build();
+        registry.counter("junit.counter").inc();
+        first.report();
+        second.report();
+
+        first.stop();
+        assertFalse(selfMetrics.getNames().contains("mongodb-reporter.first.write.counter"));
+        assertTrue("Removes metrics of other reporter",
+                selfMetrics.getNames().contains("mongodb-reporter.second.write.counter"));
+        second.stop();
+        assertTrue(selfMetrics.getNames().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReporterNameInUse() {
+        MongoDBReporter.forRegistry(registry).withDatabase(database).withSelfMetrics(selfMetrics).build();
+        MongoDBReporter.forRegistry(registry).withDatabase(database).withSelfMetrics(selfMetrics).build();
+    }
+}
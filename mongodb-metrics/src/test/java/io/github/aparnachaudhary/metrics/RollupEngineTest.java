@@ -0,0 +1,85 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author aparna
+ */
+public class RollupEngineTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private final List<String> collections = new ArrayList<>();
+    private final List<RawBsonDocument> documents = new ArrayList<>();
+    private final RollupEngine.Sink sink = new RollupEngine.Sink() {
+        @Override
+        public void store(String collectionName, String name, RawBsonDocument document) {
+            collections.add(collectionName);
+            documents.add(document);
+        }
+    };
+    private final RollupEngine engine = new RollupEngine(
+            new MetricDocumentEncoder(MongoClient.getDefaultCodecRegistry(), Collections.<String, Object>emptyMap(),
+                    new MetricDocumentEncoder.Options()),
+            Arrays.asList(MINUTE, TimeUnit.HOURS.toMillis(1)));
+
+    @Test
+    public void aggregatesValuesUntilWindowEnds() {
+        engine.advance(10 * MINUTE, sink);
+        engine.recordValue(MetricCollections.COUNTER, "junit.requests", 10);
+        engine.advance(10 * MINUTE + 30000, sink);
+        engine.recordValue(MetricCollections.COUNTER, "junit.requests", 4);
+        assertEquals("Writes window before it ends", 0, documents.size());
+
+        engine.advance(11 * MINUTE, sink);
+        assertEquals(Collections.singletonList("counter_1m"), collections);
+
+        final BsonDocument rollup = documents.get(0);
+        assertEquals(10 * MINUTE, rollup.getDateTime("timestamp").getValue());
+        assertEquals(2L, rollup.getInt64("samples").getValue());
+        assertEquals(4.0, rollup.getDouble("min").getValue(), 0.0);
+        assertEquals(10.0, rollup.getDouble("max").getValue(), 0.0);
+        assertEquals(14.0, rollup.getDouble("sum").getValue(), 0.0);
+        assertEquals(4.0, rollup.getDouble("last").getValue(), 0.0);
+    }
+
+    @Test
+    public void mergesDistributionsOfWindow() {
+        engine.advance(0, sink);
+        engine.recordDistribution(MetricCollections.TIMER, "junit.timer", 3, snapshot(100, 200, 300));
+        engine.recordDistribution(MetricCollections.TIMER, "junit.timer", 5, snapshot(400, 500));
+        engine.flush(sink);
+
+        assertEquals(Arrays.asList("timer_1m", "timer_1h"), collections);
+        final BsonDocument rollup = documents.get(0);
+        assertEquals(5L, rollup.getInt64("count").getValue());
+        assertEquals(500, rollup.getDocument("snapshot").getInt64("max").getValue(), 5);
+        final LogHistogram histogram = LogHistogram.fromByteArray(rollup.getBinary("histogram").getData());
+        assertEquals(5, histogram.getTotalCount());
+    }
+
+    @Test
+    public void namesCollectionsAfterWindow() {
+        assertEquals("_1m", RollupEngine.suffixOf(MINUTE));
+        assertEquals("_1h", RollupEngine.suffixOf(TimeUnit.HOURS.toMillis(1)));
+        assertEquals("_90s", RollupEngine.suffixOf(90000));
+        assertEquals(10, engine.collectionNames().size());
+    }
+
+    private static Snapshot snapshot(long... values) {
+        return new UniformSnapshot(values);
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author aparna
+ */
+public class SharedMongoClientTest {
+
+    private static final ServerAddress[] ADDRESSES = { new ServerAddress("localhost", 27017) };
+
+    @Test
+    public void sharesClientOfEqualSettings() {
+        final MongoClientOptions options = MongoClientOptions.builder().build();
+        final SharedMongoClient first = SharedMongoClient.acquire(ADDRESSES, null, options);
+        final SharedMongoClient second = SharedMongoClient.acquire(ADDRESSES, null, MongoClientOptions.builder().build());
+        final SharedMongoClient other = SharedMongoClient.acquire(ADDRESSES, null,
+                MongoClientOptions.builder().connectionsPerHost(5).build());
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(2, SharedMongoClient.size());
+
+        first.release();
+        assertEquals("Closes client still in use", 2, SharedMongoClient.size());
+        second.release();
+        other.release();
+        assertEquals(0, SharedMongoClient.size());
+    }
+
+    @Test
+    public void releasesClientWhenLastReporterStops() {
+        final MongoDBReporter first = MongoDBReporter.forRegistry(new MetricRegistry())
+                .serverAddresses(ADDRESSES)
+                .shareMongoClient(true)
+                .build();
+        final MongoDBReporter second = MongoDBReporter.forRegistry(new MetricRegistry())
+                .serverAddresses(ADDRESSES)
+                .withDatabaseName("other")
+                .shareMongoClient(true)
+                .build();
+        assertEquals(1, SharedMongoClient.size());
+
+        first.stop();
+        first.stop();
+        assertEquals("Releases client twice", 1, SharedMongoClient.size());
+        second.close();
+        assertEquals(0, SharedMongoClient.size());
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.aparnachaudhary.metrics;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DocumentCodec;
+
+/**
+ * Metric documents shared by the tests.
+ *
+ * @author aparna
+ */
+final class TestDocuments {
+
+    private TestDocuments() {
+    }
+
+    /**
+     * @param name metric name
+     * @return a raw document holding only the name
+     */
+    static RawBsonDocument document(String name) {
+        return new RawBsonDocument(new BsonDocument("name", new BsonString(name)), new BsonDocumentCodec());
+    }
+
+    /**
+     * @param document encoded document
+     * @return the document decoded for assertions
+     */
+    static Document decode(RawBsonDocument document) {
+        return document.decode(new DocumentCodec());
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.aparnachaudhary.metrics;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author aparna
+ */
+public class WritePolicyTest {
+
+    @Test
+    public void retriesTransientErrors() {
+        final WritePolicy policy = new WritePolicy(2, 1, 2, 0, 0, TimeUnit.MILLISECONDS);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final String result = policy.execute(new WritePolicy.Write<String>() {
+            @Override
+            public String execute() {
+                if (attempts.incrementAndGet() < 3) {
+                    throw socketError();
+                }
+                return "written";
+            }
+        });
+
+        assertEquals("written", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryOtherErrors() {
+        final WritePolicy policy = new WritePolicy(2, 1, 2, 1, 1, TimeUnit.HOURS);
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            policy.execute(new WritePolicy.Write<Object>() {
+                @Override
+                public Object execute() {
+                    attempts.incrementAndGet();
+                    throw new MongoCommandException(new BsonDocument(), new ServerAddress());
+                }
+            });
+            fail("Swallows error");
+        } catch (MongoCommandException e) {
+            assertEquals(1, attempts.get());
+            assertFalse("Opens breaker on server answer", policy.isOpen());
+        }
+    }
+
+    @Test
+    public void opensBreakerAfterConsecutiveFailures() throws Exception {
+        final WritePolicy policy = new WritePolicy(0, 0, 0, 2, 50, TimeUnit.MILLISECONDS);
+        final AtomicInteger attempts = new AtomicInteger();
+        final WritePolicy.Write<Object> failing = new WritePolicy.Write<Object>() {
+            @Override
+            public Object execute() {
+                attempts.incrementAndGet();
+                throw socketError();
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                policy.execute(failing);
+                fail("Swallows error");
+            } catch (MongoException e) {
+                assertEquals(i == 2, e instanceof WritePolicy.CircuitOpenException);
+            }
+        }
+        assertEquals("Writes while open", 2, attempts.get());
+        assertTrue(policy.isOpen());
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertEquals("trial", policy.execute(new WritePolicy.Write<String>() {
+            @Override
+            public String execute() {
+                return "trial";
+            }
+        }));
+        assertFalse(policy.isOpen());
+    }
+
+    @Test
+    public void allowsNextTrialAfterTrialFailedWithOtherException() throws Exception {
+        final WritePolicy policy = new WritePolicy(0, 0, 0, 1, 50, TimeUnit.MILLISECONDS);
+        try {
+            policy.execute(new WritePolicy.Write<Object>() {
+                @Override
+                public Object execute() {
+                    throw socketError();
+                }
+            });
+            fail("Swallows error");
+        } catch (MongoException e) {
+            assertTrue(policy.isOpen());
+        }
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        try {
+            policy.execute(new WritePolicy.Write<Object>() {
+                @Override
+                public Object execute() {
+                    throw new IllegalStateException("state should be: open");
+                }
+            });
+            fail("Swallows error");
+        } catch (IllegalStateException e) {
+            assertTrue("Does not reopen breaker", policy.isOpen());
+        }
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertEquals("Blocks trial forever", "trial", policy.execute(new WritePolicy.Write<String>() {
+            @Override
+            public String execute() {
+                return "trial";
+            }
+        }));
+        assertFalse(policy.isOpen());
+    }
+
+    private static MongoException socketError() {
+        return new MongoSocketReadException("Prematurely reached end of stream", new ServerAddress());
+    }
+}